@@ -0,0 +1,31 @@
+package asmlib.bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler attached, so allocation rates are reported with throughput.
+ * Takes the same arguments as the JMH command line.
+ * 
+ * @author Mechafinch
+ */
+public class BenchmarkMain {
+    
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        
+        if(cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+            // let JMH handle informational options
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        
+        new Runner(new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,24 @@
+package asmlib.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts bytes processed, so throughput is reported in bytes per second alongside operations per second
+ * 
+ * @author Mechafinch
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ByteCounter {
+    
+    public long bytes;
+    
+    @Setup(Level.Iteration)
+    public void reset() {
+        this.bytes = 0;
+    }
+}
@@ -0,0 +1,68 @@
+package asmlib.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asmlib.lex.Lexer;
+import asmlib.lex.symbols.Symbol;
+import asmlib.token.Tokenizer;
+import asmlib.token.tokens.Token;
+
+/**
+ * Throughput of {@link Lexer#lex(List)} on pre-tokenized sources
+ * 
+ * @author Mechafinch
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LexerBenchmark {
+    
+    @Param({"10000"})
+    public int lines;
+    
+    @Param({"0", "100"})
+    public int defines;
+    
+    @Param({"0.1", "0.5"})
+    public double labelDensity;
+    
+    private List<Token> tokens;
+    
+    private Lexer lexer;
+    
+    private long size;
+    
+    @Setup
+    public void setup() {
+        Tokenizer.setHandleStrings(true);
+        Tokenizer.setHandleDefinitions(true);
+        
+        List<String> source = Workloads.source(this.lines, this.defines, this.labelDensity, 1);
+        
+        this.tokens = Tokenizer.tokenize(source);
+        this.size = Workloads.sizeOf(source);
+        this.lexer = Workloads.lexer();
+    }
+    
+    @Benchmark
+    public List<Symbol> lex(ByteCounter counter) {
+        counter.bytes += this.size;
+        return this.lexer.lex(this.tokens);
+    }
+}
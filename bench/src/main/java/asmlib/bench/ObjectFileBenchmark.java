@@ -0,0 +1,59 @@
+package asmlib.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asmlib.util.relocation.RelocatableObject;
+
+/**
+ * Throughput of reading and writing relocatable object files
+ * 
+ * @author Mechafinch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjectFileBenchmark {
+    
+    @Param({"1024", "65536"})
+    public int size;
+    
+    @Param({"16", "1024"})
+    public int refs;
+    
+    private RelocatableObject object;
+    
+    private byte[] file;
+    
+    @Setup
+    public void setup() {
+        this.object = Workloads.objects(1, this.size, this.refs, this.refs, 1).get(0);
+        this.file = this.object.asObjectFile();
+    }
+    
+    @Benchmark
+    public RelocatableObject read(ByteCounter counter) {
+        counter.bytes += this.file.length;
+        return new RelocatableObject(this.file);
+    }
+    
+    @Benchmark
+    public byte[] write(ByteCounter counter) {
+        counter.bytes += this.file.length;
+        return this.object.asObjectFile();
+    }
+}
@@ -0,0 +1,75 @@
+package asmlib.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asmlib.util.relocation.RelocatableObject;
+import asmlib.util.relocation.Relocator;
+
+/**
+ * Throughput of linking, sequentially and in parallel, into a new array and into an existing one
+ * 
+ * @author Mechafinch
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelocatorBenchmark {
+    
+    @Param({"100", "1000"})
+    public int objects;
+    
+    @Param({"256", "4096"})
+    public int size;
+    
+    @Param({"16"})
+    public int refs;
+    
+    @Param({"false", "true"})
+    public boolean parallel;
+    
+    private Relocator relocator;
+    
+    private byte[] memory;
+    
+    private long imageSize;
+    
+    @Setup
+    public void setup() {
+        this.relocator = new Relocator();
+        
+        for(RelocatableObject obj : Workloads.objects(this.objects, this.size, this.refs, this.refs, 1)) {
+            this.relocator.add(obj);
+        }
+        
+        this.relocator.setParallel(this.parallel);
+        this.imageSize = this.relocator.relocate(0).length;
+        this.memory = new byte[(int) this.imageSize];
+    }
+    
+    @Benchmark
+    public byte[] relocate(ByteCounter counter) {
+        counter.bytes += this.imageSize;
+        return this.relocator.relocate(0);
+    }
+    
+    @Benchmark
+    public int relocateInto(ByteCounter counter) {
+        counter.bytes += this.imageSize;
+        return this.relocator.relocate(0, this.memory, 0);
+    }
+}
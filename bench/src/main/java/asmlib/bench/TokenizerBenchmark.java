@@ -0,0 +1,61 @@
+package asmlib.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asmlib.token.Tokenizer;
+import asmlib.token.tokens.Token;
+
+/**
+ * Throughput of {@link Tokenizer#tokenize(List)}
+ * 
+ * @author Mechafinch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+    
+    @Param({"10000"})
+    public int lines;
+    
+    @Param({"0", "100"})
+    public int defines;
+    
+    @Param({"0.1", "0.5"})
+    public double labelDensity;
+    
+    private List<String> source;
+    
+    private long size;
+    
+    @Setup
+    public void setup() {
+        Tokenizer.setHandleStrings(true);
+        Tokenizer.setHandleDefinitions(true);
+        
+        this.source = Workloads.source(this.lines, this.defines, this.labelDensity, 1);
+        this.size = Workloads.sizeOf(this.source);
+    }
+    
+    @Benchmark
+    public List<Token> tokenize(ByteCounter counter) {
+        counter.bytes += this.size;
+        return Tokenizer.tokenize(this.source);
+    }
+}
@@ -0,0 +1,72 @@
+package asmlib.bench;
+
+import java.util.List;
+
+import asmlib.bench.gen.ObjectGenerator;
+import asmlib.bench.gen.SourceGenerator;
+import asmlib.lex.Lexer;
+import asmlib.util.relocation.RelocatableObject;
+
+/**
+ * Synthetic inputs for the benchmarks, from the generators in {@link asmlib.bench.gen}. Everything is
+ * generated from a seed, so runs are repeatable.
+ * 
+ * @author Mechafinch
+ */
+public class Workloads {
+    
+    /**
+     * @return A lexer for the generated sources
+     */
+    public static Lexer lexer() {
+        return SourceGenerator.lexer();
+    }
+    
+    /**
+     * Generates an assembly source
+     * 
+     * @param lines Number of lines
+     * @param defines Number of {@code %define}s at the top, used throughout
+     * @param labelDensity Fraction of lines that are labels
+     * @param seed
+     * @return
+     */
+    public static List<String> source(int lines, int defines, double labelDensity, long seed) {
+        SourceGenerator gen = new SourceGenerator(seed);
+        gen.setLines(lines);
+        gen.setDefines(defines);
+        gen.setLabelDensity(labelDensity);
+        
+        return gen.generate();
+    }
+    
+    /**
+     * @param lines
+     * @return Size of the source in bytes, counting line separators
+     */
+    public static long sizeOf(List<String> lines) {
+        long size = 0;
+        for(String s : lines) size += s.length() + 1;
+        return size;
+    }
+    
+    /**
+     * Generates a set of objects that reference each other at random
+     * 
+     * @param count Number of objects
+     * @param size Size of the object code of each object, in bytes
+     * @param symbols Symbols defined by each object
+     * @param refs References made by each object to symbols of other objects
+     * @param seed
+     * @return
+     */
+    public static List<RelocatableObject> objects(int count, int size, int symbols, int refs, long seed) {
+        ObjectGenerator gen = new ObjectGenerator(seed);
+        gen.setCount(count);
+        gen.setSize(size);
+        gen.setSymbols(symbols);
+        gen.setReferences(refs);
+        
+        return gen.generate();
+    }
+}
@@ -0,0 +1,135 @@
+package asmlib.bench.gen;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import asmlib.bench.gen.ObjectGenerator.Topology;
+
+/**
+ * Command line entry point for the generators.
+ * 
+ * <pre>
+ * GeneratorMain source &lt;file&gt; [--seed n] [--lines n] [--defines n] [--label-density d] [--local-ratio d]
+ *                               [--string-density d] [--memory-density d] [--expression-density d] [--comment-density d]
+ * GeneratorMain objects &lt;directory&gt; [--seed n] [--count n] [--size n] [--symbols n] [--refs n] [--width n]
+ *                                    [--topology random|chain|local|hub] [--window n] [--little-endian]
+ * </pre>
+ * 
+ * @author Mechafinch
+ */
+public class GeneratorMain {
+    
+    private static final String USAGE = """
+            usage: source <file> [--seed n] [--lines n] [--defines n] [--label-density d] [--local-ratio d]
+                                 [--string-density d] [--memory-density d] [--expression-density d] [--comment-density d]
+                   objects <directory> [--seed n] [--count n] [--size n] [--symbols n] [--refs n] [--width n]
+                                       [--topology random|chain|local|hub] [--window n] [--little-endian]""";
+    
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        
+        try {
+            switch(args[0]) {
+                case "source"   -> source(args);
+                case "objects"  -> objects(args);
+                default         -> throw new IllegalArgumentException("Unknown generator: " + args[0]);
+            }
+        } catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Generates a source
+     * 
+     * @param args
+     * @throws IOException
+     */
+    private static void source(String[] args) throws IOException {
+        SourceGenerator gen = new SourceGenerator(seed(args));
+        
+        for(int i = 2; i < args.length; i += 2) {
+            String value = value(args, i);
+            
+            switch(args[i]) {
+                case "--seed"               -> { }
+                case "--lines"              -> gen.setLines(Integer.parseInt(value));
+                case "--defines"            -> gen.setDefines(Integer.parseInt(value));
+                case "--label-density"      -> gen.setLabelDensity(Double.parseDouble(value));
+                case "--local-ratio"        -> gen.setLocalLabelRatio(Double.parseDouble(value));
+                case "--string-density"     -> gen.setStringDensity(Double.parseDouble(value));
+                case "--memory-density"     -> gen.setMemoryDensity(Double.parseDouble(value));
+                case "--expression-density" -> gen.setExpressionDensity(Double.parseDouble(value));
+                case "--comment-density"    -> gen.setCommentDensity(Double.parseDouble(value));
+                default                     -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        
+        gen.write(Path.of(args[1]));
+    }
+    
+    /**
+     * Generates a set of objects
+     * 
+     * @param args
+     * @throws IOException
+     */
+    private static void objects(String[] args) throws IOException {
+        ObjectGenerator gen = new ObjectGenerator(seed(args));
+        
+        for(int i = 2; i < args.length; i += 2) {
+            if(args[i].equals("--little-endian")) {
+                gen.setMixedEndianness(false);
+                i--;
+                continue;
+            }
+            
+            String value = value(args, i);
+            
+            switch(args[i]) {
+                case "--seed"       -> { }
+                case "--count"      -> gen.setCount(Integer.parseInt(value));
+                case "--size"       -> gen.setSize(Integer.parseInt(value));
+                case "--symbols"    -> gen.setSymbols(Integer.parseInt(value));
+                case "--refs"       -> gen.setReferences(Integer.parseInt(value));
+                case "--width"      -> gen.setWidth(Integer.parseInt(value));
+                case "--topology"   -> gen.setTopology(Topology.valueOf(value.toUpperCase(Locale.ROOT)));
+                case "--window"     -> gen.setWindow(Integer.parseInt(value));
+                default             -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        
+        System.out.println("Wrote " + gen.write(Path.of(args[1])).size() + " objects");
+    }
+    
+    /**
+     * Finds the seed ahead of the other options, as it's needed to create a generator
+     * 
+     * @param args
+     * @return The seed, or 0 if none is given
+     */
+    private static long seed(String[] args) {
+        for(int i = 2; i < args.length - 1; i++) {
+            if(args[i].equals("--seed")) return Long.parseLong(args[i + 1]);
+        }
+        
+        return 0;
+    }
+    
+    /**
+     * @param args
+     * @param i Index of an option
+     * @return The option's value
+     */
+    private static String value(String[] args, int i) {
+        if(i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + args[i]);
+        
+        return args[i + 1];
+    }
+}
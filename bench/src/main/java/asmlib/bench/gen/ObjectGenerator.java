@@ -0,0 +1,188 @@
+package asmlib.bench.gen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import asmlib.util.relocation.RelocatableObject;
+import asmlib.util.relocation.RelocatableObject.Endianness;
+
+/**
+ * Generates sets of relocatable objects that reference each other, for load testing the
+ * {@link asmlib.util.relocation.Relocator} and object file handling. Object {@code i} is named
+ * {@code obj<i>} and defines symbols {@code s0} through {@code s<n-1>}. Which objects reference which is
+ * controlled by a {@link Topology}. The same seed and settings always give the same objects.
+ * <p>
+ * Every reference is the same width, as the object file format expects, and references never overlap.
+ * </p>
+ * 
+ * @author Mechafinch
+ */
+public class ObjectGenerator {
+    
+    /**
+     * Shape of the reference graph
+     */
+    public enum Topology {
+        /** References go to any object with equal probability */
+        RANDOM,
+        /** Each object references only the next, the last wrapping around to the first */
+        CHAIN,
+        /** References go to objects within a window of the referencing object */
+        LOCAL,
+        /** References are skewed heavily towards the first few objects */
+        HUB
+    }
+    
+    private long seed;
+    
+    private int count = 100,
+                size = 256,
+                symbols = 16,
+                references = 16,
+                width = 4,
+                window = 8;
+    
+    private Topology topology = Topology.RANDOM;
+    
+    private boolean mixedEndianness = true;
+    
+    /**
+     * @param seed
+     */
+    public ObjectGenerator(long seed) {
+        this.seed = seed;
+    }
+    
+    /**
+     * Generates the objects
+     * 
+     * @return Objects, in order
+     */
+    public List<RelocatableObject> generate() {
+        Random r = new Random(this.seed);
+        List<RelocatableObject> objs = new ArrayList<>(this.count);
+        
+        for(int i = 0; i < this.count; i++) {
+            HashMap<String, List<Integer>> incoming = new HashMap<>();
+            HashMap<String, Integer> outgoing = new HashMap<>(),
+                                     incomingWidths = new HashMap<>(),
+                                     outgoingWidths = new HashMap<>();
+            
+            for(int s = 0; s < this.symbols; s++) {
+                outgoing.put("s" + s, r.nextInt(this.size));
+                outgoingWidths.put("s" + s, this.width);
+            }
+            
+            // each reference is patched into its own slot
+            List<Integer> free = new ArrayList<>(this.size / this.width);
+            for(int offset = 0; offset + this.width <= this.size; offset += this.width) free.add(offset);
+            
+            for(int k = 0; k < this.references && !free.isEmpty() && this.symbols > 0; k++) {
+                String target = "obj" + target(r, i) + ".s" + r.nextInt(this.symbols);
+                
+                incoming.computeIfAbsent(target, t -> new ArrayList<>()).add(free.remove(r.nextInt(free.size())));
+                incomingWidths.put(target, this.width);
+            }
+            
+            byte[] code = new byte[this.size];
+            r.nextBytes(code);
+            
+            Endianness e = (this.mixedEndianness && r.nextBoolean()) ? Endianness.BIG : Endianness.LITTLE;
+            objs.add(new RelocatableObject(e, "obj" + i, 4, incoming, outgoing, incomingWidths, outgoingWidths, code, false));
+        }
+        
+        return objs;
+    }
+    
+    /**
+     * Generates the objects and writes them to a directory as {@code obj<i>.obj}, along with
+     * {@code objects.exec} listing them, with entry {@code obj0.s0}
+     * 
+     * @param directory
+     * @return Object files, in order
+     * @throws IOException
+     */
+    public List<File> write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        
+        List<File> files = new ArrayList<>(this.count);
+        List<String> exec = new ArrayList<>(this.count + 1);
+        
+        exec.add("#entry obj0.s0");
+        
+        for(RelocatableObject obj : generate()) {
+            Path p = directory.resolve(obj.getName() + ".obj");
+            
+            Files.write(p, obj.asObjectFile());
+            files.add(p.toFile());
+            exec.add(p.getFileName().toString());
+        }
+        
+        Files.write(directory.resolve("objects.exec"), exec, StandardCharsets.UTF_8);
+        
+        return files;
+    }
+    
+    /**
+     * Picks the object referenced by an object
+     * 
+     * @param r
+     * @param source Index of the referencing object
+     * @return Index of the referenced object
+     */
+    private int target(Random r, int source) {
+        return switch(this.topology) {
+            case RANDOM -> r.nextInt(this.count);
+            case CHAIN  -> (source + 1) % this.count;
+            case LOCAL  -> Math.floorMod(source + r.nextInt(2 * this.window + 1) - this.window, this.count);
+            case HUB    -> (int) (this.count * Math.pow(r.nextDouble(), 4));
+        };
+    }
+    
+    /**
+     * @param count Number of objects
+     */
+    public void setCount(int count) { this.count = count; }
+    
+    /**
+     * @param size Size of each object's code in bytes
+     */
+    public void setSize(int size) { this.size = size; }
+    
+    /**
+     * @param symbols Number of symbols defined by each object
+     */
+    public void setSymbols(int symbols) { this.symbols = symbols; }
+    
+    /**
+     * @param references Number of references made by each object, limited by the space available for them
+     */
+    public void setReferences(int references) { this.references = references; }
+    
+    /**
+     * @param width Width of references in bytes
+     */
+    public void setWidth(int width) { this.width = width; }
+    
+    /**
+     * @param topology Shape of the reference graph
+     */
+    public void setTopology(Topology topology) { this.topology = topology; }
+    
+    /**
+     * @param window For {@link Topology#LOCAL}, how far away a referenced object can be
+     */
+    public void setWindow(int window) { this.window = window; }
+    
+    /**
+     * @param mixed If true, objects are randomly big or little endian. Otherwise all are little endian.
+     */
+    public void setMixedEndianness(boolean mixed) { this.mixedEndianness = mixed; }
+}
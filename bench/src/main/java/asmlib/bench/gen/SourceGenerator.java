@@ -0,0 +1,314 @@
+package asmlib.bench.gen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import asmlib.lex.Lexer;
+
+/**
+ * Generates assembly sources for load testing the {@link asmlib.token.Tokenizer} and {@link Lexer}. Sources
+ * are made of functions with outer labels, local ({@code .name}) labels within them, {@code %define}d
+ * constants, strings, memory operands, and expressions. The same seed and settings always give the same
+ * source.
+ * <p>
+ * Generated sources tokenize and lex without errors using the reserved words of {@link #lexer()}.
+ * </p>
+ * 
+ * @author Mechafinch
+ */
+public class SourceGenerator {
+    
+    public static final List<String> MNEMONICS = List.of("MOV", "ADD", "SUB", "CMP", "AND", "OR", "XOR", "SHL", "SHR", "LEA", "JMP", "JZ", "JNZ", "CALL", "RET", "PUSH", "POP", "NOP"),
+                                     REGISTERS = List.of("RAX", "RBX", "RCX", "RDX", "RSI", "RDI", "RSP", "RBP", "R8", "R9", "R10", "R11"),
+                                     DIRECTIVES = List.of("DB", "DW", "DD", "DQ", "SECTION", "ALIGN"),
+                                     SIZES = List.of("BYTE", "WORD", "DWORD", "QWORD");
+    
+    private static final List<String> ALU = List.of("MOV", "ADD", "SUB", "CMP", "AND", "OR", "XOR"),
+                                      BRANCHES = List.of("JMP", "JZ", "JNZ");
+    
+    private static final String STRING_CHARACTERS = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789,;:[]()+-*/";
+    
+    private long seed;
+    
+    private int lines = 1000,
+                defines = 0;
+    
+    private double labelDensity = 0.1,
+                   localLabelRatio = 0.75,
+                   stringDensity = 0.05,
+                   memoryDensity = 0.25,
+                   expressionDensity = 0.2,
+                   commentDensity = 0.2;
+    
+    /**
+     * @param seed
+     */
+    public SourceGenerator(long seed) {
+        this.seed = seed;
+    }
+    
+    /**
+     * @return A lexer for generated sources
+     */
+    public static Lexer lexer() {
+        return new Lexer(MNEMONICS, REGISTERS, DIRECTIVES, SIZES, List.of(), "", false);
+    }
+    
+    /**
+     * Generates a source
+     * 
+     * @return Lines of the source, without line separators
+     */
+    public List<String> generate() {
+        Random r = new Random(this.seed);
+        List<String> src = new ArrayList<>(this.lines);
+        
+        // fixed width names, so no define is a substring of another
+        String defineFormat = "DEF_%0" + Integer.toString(Math.max(this.defines - 1, 0)).length() + "d";
+        
+        for(int i = 0; i < this.defines && src.size() < this.lines; i++) {
+            // some defines are built from earlier ones, exercising nested definitions
+            String value = (i > 0 && r.nextInt(4) == 0) ? "(" + String.format(defineFormat, r.nextInt(i)) + " + " + r.nextInt(64) + ")"
+                                                        : number(r);
+            
+            src.add("%define " + String.format(defineFormat, i) + " " + value);
+        }
+        
+        int functions = 0,
+            locals = 0;
+        
+        while(src.size() < this.lines) {
+            String line;
+            
+            if(functions == 0 || r.nextDouble() < this.labelDensity) {
+                // labels
+                if(functions == 0 || r.nextDouble() >= this.localLabelRatio) {
+                    line = "fn_" + functions++ + ":";
+                    locals = 0;
+                } else {
+                    line = ".L" + locals++ + ":";
+                }
+            } else if(r.nextDouble() < this.stringDensity) {
+                line = "    DB " + string(r) + ", 0";
+            } else {
+                line = "    " + instruction(r, functions, locals, defineFormat);
+            }
+            
+            if(r.nextDouble() < this.commentDensity) line += " ; " + comment(r, src.size());
+            
+            src.add(line);
+        }
+        
+        return src;
+    }
+    
+    /**
+     * Generates a source and writes it to a file, creating its directory if needed
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.write(file, generate(), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Generates an instruction
+     * 
+     * @param r
+     * @param functions Number of functions so far, including the current one
+     * @param locals Number of local labels in the current function
+     * @param defineFormat
+     * @return
+     */
+    private String instruction(Random r, int functions, int locals, String defineFormat) {
+        int kind = r.nextInt(16);
+        
+        if(kind == 0) {
+            return "CALL fn_" + r.nextInt(functions);
+        } else if(kind == 1) {
+            return BRANCHES.get(r.nextInt(BRANCHES.size())) + " " + ((locals > 0) ? ".L" + r.nextInt(locals) : "fn_" + (functions - 1));
+        } else if(kind == 2) {
+            return (r.nextBoolean() ? "PUSH " : "POP ") + register(r);
+        } else if(kind == 3) {
+            return r.nextBoolean() ? "RET" : "NOP";
+        }
+        
+        String mnemonic = ALU.get(r.nextInt(ALU.size())),
+               destination = register(r),
+               source;
+        
+        double d = r.nextDouble();
+        
+        if(d < this.memoryDensity) {
+            source = SIZES.get(r.nextInt(SIZES.size())) + " " + memory(r, functions, defineFormat);
+            
+            // stores as well as loads
+            if(r.nextBoolean()) {
+                String s = source;
+                source = destination;
+                destination = s;
+            }
+        } else if(d < this.memoryDensity + this.expressionDensity) {
+            source = expression(r, functions, defineFormat, 2);
+        } else if(r.nextBoolean()) {
+            source = register(r);
+        } else {
+            source = constant(r, defineFormat);
+        }
+        
+        return mnemonic + " " + destination + ", " + source;
+    }
+    
+    /**
+     * Generates a memory operand, {@code [base + index * scale + offset]} or a subset of it
+     * 
+     * @param r
+     * @param functions
+     * @param defineFormat
+     * @return
+     */
+    private String memory(Random r, int functions, String defineFormat) {
+        String m = "[" + ((r.nextInt(4) == 0) ? "fn_" + r.nextInt(functions) : register(r));
+        
+        if(r.nextBoolean()) m += " + " + register(r) + " * " + (1 << r.nextInt(4));
+        if(r.nextBoolean()) m += (r.nextBoolean() ? " + " : " - ") + constant(r, defineFormat);
+        
+        return m + "]";
+    }
+    
+    /**
+     * Generates an expression of constants, defines, and labels
+     * 
+     * @param r
+     * @param functions
+     * @param defineFormat
+     * @param depth Maximum parenthesis depth
+     * @return
+     */
+    private String expression(Random r, int functions, String defineFormat, int depth) {
+        String[] operators = { " + ", " - ", " * ", " / ", " << ", " & ", " | " };
+        StringBuilder e = new StringBuilder();
+        int terms = 2 + r.nextInt(3);
+        
+        for(int i = 0; i < terms; i++) {
+            if(i > 0) e.append(operators[r.nextInt(operators.length)]);
+            
+            int kind = r.nextInt(5);
+            
+            if(kind == 0 && depth > 0) {
+                e.append('(').append(expression(r, functions, defineFormat, depth - 1)).append(')');
+            } else if(kind == 1) {
+                e.append("fn_").append(r.nextInt(functions));
+            } else {
+                e.append(constant(r, defineFormat));
+            }
+        }
+        
+        return e.toString();
+    }
+    
+    /**
+     * @param r
+     * @param defineFormat
+     * @return A define if there are any, sometimes, otherwise a number
+     */
+    private String constant(Random r, String defineFormat) {
+        return (this.defines > 0 && r.nextBoolean()) ? String.format(defineFormat, r.nextInt(this.defines)) : number(r);
+    }
+    
+    /**
+     * @param r
+     * @return A number in one of the bases the tokenizer accepts
+     */
+    private static String number(Random r) {
+        int v = r.nextInt(1 << 16);
+        
+        return switch(r.nextInt(5)) {
+            case 0  -> "0x" + Integer.toHexString(v);
+            case 1  -> "0b" + Integer.toBinaryString(v & 0xFF);
+            case 2  -> "0o" + Integer.toOctalString(v);
+            case 3  -> "0x" + Integer.toHexString(v >> 8) + "_" + String.format("%02x", v & 0xFF);
+            default -> Integer.toString(v);
+        };
+    }
+    
+    /**
+     * @param r
+     * @return
+     */
+    private static String register(Random r) {
+        return REGISTERS.get(r.nextInt(REGISTERS.size()));
+    }
+    
+    /**
+     * @param r
+     * @return A quoted string, which may contain separators and comment markers
+     */
+    private static String string(Random r) {
+        StringBuilder sb = new StringBuilder();
+        int length = 1 + r.nextInt(32);
+        
+        for(int i = 0; i < length; i++) {
+            sb.append(STRING_CHARACTERS.charAt(r.nextInt(STRING_CHARACTERS.length())));
+        }
+        
+        char quote = r.nextBoolean() ? '"' : '\'';
+        return quote + sb.toString() + quote;
+    }
+    
+    /**
+     * @param r
+     * @param line
+     * @return Comment text
+     */
+    private static String comment(Random r, int line) {
+        return "note " + line + ((r.nextInt(4) == 0) ? ", see \"fn_" + r.nextInt(64) + "\" [notes]" : "");
+    }
+    
+    /**
+     * @param lines Number of lines to generate
+     */
+    public void setLines(int lines) { this.lines = lines; }
+    
+    /**
+     * @param defines Number of {@code %define}s at the top of the source
+     */
+    public void setDefines(int defines) { this.defines = defines; }
+    
+    /**
+     * @param density Fraction of lines that are labels
+     */
+    public void setLabelDensity(double density) { this.labelDensity = density; }
+    
+    /**
+     * @param ratio Fraction of labels that are local
+     */
+    public void setLocalLabelRatio(double ratio) { this.localLabelRatio = ratio; }
+    
+    /**
+     * @param density Fraction of non-label lines that are string data
+     */
+    public void setStringDensity(double density) { this.stringDensity = density; }
+    
+    /**
+     * @param density Fraction of two-operand instructions with a memory operand
+     */
+    public void setMemoryDensity(double density) { this.memoryDensity = density; }
+    
+    /**
+     * @param density Fraction of two-operand instructions with an expression operand
+     */
+    public void setExpressionDensity(double density) { this.expressionDensity = density; }
+    
+    /**
+     * @param density Fraction of lines with a trailing comment
+     */
+    public void setCommentDensity(double density) { this.commentDensity = density; }
+}
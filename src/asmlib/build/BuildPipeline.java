@@ -0,0 +1,354 @@
+package asmlib.build;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import asmlib.lex.Lexer;
+import asmlib.lex.symbols.Symbol;
+import asmlib.token.Tokenizer;
+import asmlib.token.tokens.Token;
+import asmlib.util.ConcurrentFileLocator;
+import asmlib.util.FileLoader;
+
+/**
+ * Tokenizes and lexes a set of files and everything they include, concurrently.
+ * <p>
+ * Files are read, tokenized, and lexed in separate stages connected by bounded queues, so a slow stage holds
+ * back the ones before it rather than letting work pile up. Reads are issued on virtual threads through a
+ * {@link FileLoader}, so many files can be read at once. Tokenizing goes through
+ * {@link Tokenizer#tokenize(byte[])}, so unchanged files come from the token cache if one is set. Each lexing
+ * worker has its own {@link Lexer}. Once a file is lexed its symbols are passed to the callback and its
+ * includes, found by the include resolver, are added to the {@link ConcurrentFileLocator}. Every file is
+ * processed once, however many files include it.
+ * </p>
+ * 
+ * @author Mechafinch
+ */
+public class BuildPipeline {
+    
+    private static Logger LOG = Logger.getLogger(BuildPipeline.class.getName());
+    
+    // a file between stages. a null file tells a worker to stop
+    private record Source(Path file, byte[] contents) { }
+    
+    private record Tokens(Path file, List<Token> tokens) { }
+    
+    private static final Source END_OF_SOURCES = new Source(null, null);
+    
+    private static final Tokens END_OF_TOKENS = new Tokens(null, null);
+    
+    private ConcurrentFileLocator locator;
+    
+    private Supplier<Lexer> lexers;
+    
+    private BiFunction<Path, List<Symbol>, Collection<Path>> includeResolver;
+    
+    private int readConcurrency = 64,
+                tokenizerThreads,
+                lexerThreads,
+                queueCapacity = 64;
+    
+    // failure messages by file, for the current run
+    private Map<Path, String> failures;
+    
+    /**
+     * Creates a pipeline
+     * 
+     * @param locator Locator to discover files with
+     * @param lexers Creates a lexer for each lexing worker
+     */
+    public BuildPipeline(ConcurrentFileLocator locator, Supplier<Lexer> lexers) {
+        this.locator = locator;
+        this.lexers = lexers;
+        this.includeResolver = (file, symbols) -> List.of();
+        
+        int cpus = Runtime.getRuntime().availableProcessors();
+        this.tokenizerThreads = Math.max(1, cpus / 2);
+        this.lexerThreads = Math.max(1, cpus / 2);
+    }
+    
+    /**
+     * Builds the given files and everything they include. Returns once every file has been passed to the
+     * callback or has failed.
+     * 
+     * @param roots Files to start from
+     * @param callback Receives each file and its symbols as soon as it is lexed. Called from several threads
+     * at once. An {@link Error} thrown by it, or by any stage, stops the build and is rethrown
+     * @throws InterruptedException
+     */
+    public void run(Collection<Path> roots, BiConsumer<Path, List<Symbol>> callback) throws InterruptedException {
+        this.failures = new ConcurrentHashMap<>();
+        
+        for(Path p : roots) {
+            if(!this.locator.addFile(p)) {
+                LOG.severe("Could not find file " + p);
+                throw new IllegalArgumentException("Could not find file " + p);
+            }
+        }
+        
+        BlockingQueue<Source> sources = new ArrayBlockingQueue<>(this.queueCapacity);
+        BlockingQueue<Tokens> tokens = new ArrayBlockingQueue<>(this.queueCapacity);
+        
+        ExecutorService pool = Executors.newFixedThreadPool(1 + this.tokenizerThreads + this.lexerThreads);
+        CompletionService<Void> workers = new ExecutorCompletionService<>(pool);
+        FileLoader loader = new FileLoader(this.readConcurrency);
+        boolean completed = false;
+        
+        try {
+            Future<Void> reader = workers.submit(() -> read(loader, sources));
+            Set<Future<Void>> tokenizers = new HashSet<>();
+            
+            for(int i = 0; i < this.tokenizerThreads; i++) tokenizers.add(workers.submit(() -> tokenize(sources, tokens)));
+            for(int i = 0; i < this.lexerThreads; i++) workers.submit(() -> lex(tokens, callback));
+            
+            // workers are watched together, so one dying stops the build rather than leaving the rest waiting
+            for(int running = 1 + this.tokenizerThreads + this.lexerThreads; running > 0; running--) {
+                Future<Void> f = workers.take();
+                check(f);
+                
+                if(f == reader) {
+                    // discovery is complete, at which point every file has been lexed or has failed
+                    for(int i = 0; i < this.tokenizerThreads; i++) sources.put(END_OF_SOURCES);
+                } else if(tokenizers.remove(f) && tokenizers.isEmpty()) {
+                    for(int i = 0; i < this.lexerThreads; i++) tokens.put(END_OF_TOKENS);
+                }
+            }
+            
+            completed = true;
+        } finally {
+            // interrupt anything still running, including reads blocked on a full queue, and wait for it to stop
+            // so nothing from this run records failures in the next
+            if(completed) {
+                loader.close();
+            } else {
+                loader.cancel();
+            }
+            
+            pool.shutdownNow();
+            pool.close();
+        }
+        
+        if(!this.failures.isEmpty()) {
+            String msg = "";
+            
+            for(Map.Entry<Path, String> e : this.failures.entrySet()) {
+                msg += e.getKey() + ": " + e.getValue() + ", ";
+            }
+            
+            msg = msg.substring(0, msg.length() - 2);
+            
+            LOG.severe("Build failed: " + msg);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+    
+    /**
+     * Reading stage. Takes files from the locator until discovery is complete, reading each on its own
+     * virtual thread.
+     * 
+     * @param loader
+     * @param sources
+     * @return
+     * @throws InterruptedException
+     */
+    private Void read(FileLoader loader, BlockingQueue<Source> sources) throws InterruptedException {
+        Path p;
+        
+        while((p = this.locator.take()) != null) {
+            Path file = p;
+            
+            loader.load(file).whenComplete((contents, e) -> {
+                boolean queued = false;
+                
+                try {
+                    if(e != null) {
+                        fail(file, "Could not read file: " + e.getMessage());
+                    } else {
+                        sources.put(new Source(file, contents));
+                        queued = true;
+                    }
+                } catch(InterruptedException ie) {
+                    fail(file, "Interrupted");
+                    Thread.currentThread().interrupt();
+                } finally {
+                    // once queued, the file is finished by a later stage
+                    if(!queued) this.locator.finish(file);
+                }
+            });
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Tokenizing stage
+     * 
+     * @param sources
+     * @param tokens
+     * @return
+     * @throws InterruptedException
+     */
+    private Void tokenize(BlockingQueue<Source> sources, BlockingQueue<Tokens> tokens) throws InterruptedException {
+        Source s;
+        
+        while((s = sources.take()) != END_OF_SOURCES) {
+            boolean queued = false;
+            
+            try {
+                tokens.put(new Tokens(s.file(), Tokenizer.tokenize(s.contents())));
+                queued = true;
+            } catch(InterruptedException e) {
+                fail(s.file(), "Interrupted");
+                throw e;
+            } catch(Throwable e) {
+                fail(s.file(), e);
+                if(e instanceof Error err) throw err;
+            } finally {
+                if(!queued) this.locator.finish(s.file());
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Lexing stage. Delivers symbols and adds includes.
+     * 
+     * @param tokens
+     * @param callback
+     * @return
+     * @throws InterruptedException
+     */
+    private Void lex(BlockingQueue<Tokens> tokens, BiConsumer<Path, List<Symbol>> callback) throws InterruptedException {
+        Lexer lexer = null;
+        Tokens t;
+        
+        while((t = tokens.take()) != END_OF_TOKENS) {
+            Path file = t.file();
+            
+            try {
+                // a lexer keeps its errors after failing, so a new one is made after each failure
+                if(lexer == null) lexer = this.lexers.get();
+                
+                List<Symbol> symbols = lexer.lex(t.tokens());
+                callback.accept(file, symbols);
+                
+                // includes must be added before the file is finished, or discovery could end early
+                for(Path include : this.includeResolver.apply(file, symbols)) {
+                    if(!this.locator.addFile(include, file)) {
+                        this.failures.merge(file, "Include not found: " + include, (a, b) -> a + ", " + b);
+                    }
+                }
+            } catch(Throwable e) {
+                lexer = null;
+                fail(file, e);
+                if(e instanceof Error err) throw err;
+            } finally {
+                this.locator.finish(file);
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Records a failed file. The stage holding the file still has to finish it.
+     * 
+     * @param file
+     * @param message
+     */
+    private void fail(Path file, String message) {
+        LOG.warning("Failed to build " + file + ": " + message);
+        
+        this.failures.merge(file, String.valueOf(message), (a, b) -> a + ", " + b);
+    }
+    
+    /**
+     * Records a file that failed with an exception
+     * 
+     * @param file
+     * @param e
+     */
+    private void fail(Path file, Throwable e) {
+        fail(file, (e.getMessage() == null) ? e.toString() : e.getMessage());
+    }
+    
+    /**
+     * Checks a finished worker, rethrowing any unexpected exception
+     * 
+     * @param worker
+     * @throws InterruptedException
+     */
+    private static void check(Future<Void> worker) throws InterruptedException {
+        try {
+            worker.get();
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException re) throw re;
+            if(e.getCause() instanceof Error err) throw err;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+    
+    /**
+     * Sets how files' includes are found. Includes are resolved relative to the including file, then by the
+     * locator's usual search.
+     * 
+     * @param resolver Gets the files included by a file from its symbols. Defaults to none
+     */
+    public void setIncludeResolver(BiFunction<Path, List<Symbol>, Collection<Path>> resolver) {
+        this.includeResolver = resolver;
+    }
+    
+    /**
+     * @param n Maximum number of files read at once. Defaults to 64
+     */
+    public void setReadConcurrency(int n) {
+        if(n < 1) throw new IllegalArgumentException("Read concurrency must be positive");
+        
+        this.readConcurrency = n;
+    }
+    
+    /**
+     * @param n Number of threads tokenizing. Defaults to half the available processors
+     */
+    public void setTokenizerThreads(int n) {
+        if(n < 1) throw new IllegalArgumentException("Thread count must be positive");
+        
+        this.tokenizerThreads = n;
+    }
+    
+    /**
+     * @param n Number of threads lexing, each with its own lexer. Defaults to half the available processors
+     */
+    public void setLexerThreads(int n) {
+        if(n < 1) throw new IllegalArgumentException("Thread count must be positive");
+        
+        this.lexerThreads = n;
+    }
+    
+    /**
+     * @param capacity Number of files each queue between stages can hold. Defaults to 64
+     */
+    public void setQueueCapacity(int capacity) {
+        if(capacity < 1) throw new IllegalArgumentException("Queue capacity must be positive");
+        
+        this.queueCapacity = capacity;
+    }
+}
@@ -13,6 +13,8 @@ import java.util.logging.Logger;
 
 import asmlib.lex.symbols.*;
 import asmlib.token.tokens.*;
+import asmlib.util.metrics.Metrics;
+import asmlib.util.metrics.StageTimer;
 
 /**
  * A {@code Lexer} takes an ordered list of tokens and groups them into meaningful {@link Symbol}s
@@ -231,6 +233,7 @@ public class Lexer {
      */
     public List<Symbol> lex(List<Token> ts) {
         LOG.fine("Begin lexing");
+        StageTimer timer = Metrics.begin(Metrics.Stage.LEX);
         
         // reset state
         this.lineNumber = 0;
@@ -246,6 +249,9 @@ public class Lexer {
             if(s != null) symbols.add(s);
         }
         
+        timer.end();
+        Metrics.count(Metrics.Counter.SYMBOLS, symbols.size());
+        
         LOG.fine("Finished consuming symbols. " + this.errors.size() + " errors encountered");
         
         // if we had any errors, bundle them into an exception
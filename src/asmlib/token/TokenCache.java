@@ -0,0 +1,241 @@
+package asmlib.token;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+import asmlib.token.tokens.*;
+
+/**
+ * An on-disk cache of tokenized files. Each entry holds the tokens of one file, keyed by a hash of the
+ * file's contents and the {@link Tokenizer}'s settings, so a file is only tokenized again when it or the
+ * settings change.
+ * <p>
+ * Entries are stored one per file in a compact binary form. Text is stored once in a string table and
+ * referenced by index, so repeated names share a single {@code String} when read back. Entries are read
+ * through a memory-mapped file.
+ * </p>
+ * 
+ * @author Mechafinch
+ */
+public class TokenCache {
+    
+    private static Logger LOG = Logger.getLogger(TokenCache.class.getName());
+    
+    private static final int MAGIC = 0x544F4B43, // TOKC
+                             VERSION = 1;
+    
+    private static final long FNV_OFFSET = 0xCBF29CE484222325l,
+                              FNV_PRIME = 0x100000001B3l;
+    
+    private static final byte LINE = 0,
+                              NAME = 1,
+                              NUMBER = 2,
+                              SPECIAL = 3,
+                              STRING = 4,
+                              COMMENT = 5,
+                              WHITESPACE = 6;
+    
+    private Path directory;
+    
+    /**
+     * Creates a cache in the given directory, creating the directory if needed
+     * 
+     * @param directory
+     * @throws IOException
+     */
+    public TokenCache(Path directory) throws IOException {
+        this.directory = directory;
+        
+        Files.createDirectories(directory);
+    }
+    
+    /**
+     * Computes the key of a file from its contents and the current tokenizer settings
+     * 
+     * @param contents
+     * @return
+     */
+    public static long key(byte[] contents) {
+        long h = FNV_OFFSET;
+        
+        // FNV-1a over the contents, then the settings
+        for(byte b : contents) {
+            h ^= b & 0xFF;
+            h *= FNV_PRIME;
+        }
+        
+        h = (h ^ contents.length) * FNV_PRIME;
+        
+        for(byte b : Tokenizer.configuration().getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= FNV_PRIME;
+        }
+        
+        return h;
+    }
+    
+    /**
+     * Gets cached tokens
+     * 
+     * @param key
+     * @return The tokens, or null if there is no valid entry for the key
+     */
+    public List<Token> get(long key) {
+        Path p = entryFile(key);
+        
+        if(!Files.isRegularFile(p)) return null;
+        
+        try(FileChannel fc = FileChannel.open(p, StandardOpenOption.READ)) {
+            ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            
+            if(buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.getLong() != key) {
+                LOG.fine("Ignoring invalid token cache entry " + p);
+                return null;
+            }
+            
+            String[] strings = new String[buf.getInt()];
+            int count = buf.getInt();
+            
+            for(int i = 0; i < strings.length; i++) {
+                byte[] b = new byte[buf.getInt()];
+                buf.get(b);
+                strings[i] = new String(b, StandardCharsets.UTF_8);
+            }
+            
+            ArrayList<Token> tokens = new ArrayList<>(count);
+            
+            for(int i = 0; i < count; i++) {
+                byte tag = buf.get();
+                
+                tokens.add(switch(tag) {
+                    case LINE       -> new LineToken(buf.getInt());
+                    case NAME       -> new NameToken(strings[buf.getInt()]);
+                    case NUMBER     -> new NumberToken(buf.getLong());
+                    case SPECIAL    -> new SpecialToken(buf.getChar());
+                    case STRING     -> new StringToken(strings[buf.getInt()]);
+                    case COMMENT    -> new CommentToken(strings[buf.getInt()]);
+                    case WHITESPACE -> new WhitespaceToken();
+                    default         -> throw new IllegalArgumentException("Unknown token tag " + tag);
+                });
+            }
+            
+            LOG.fine("Loaded " + count + " cached tokens for " + Long.toHexString(key));
+            
+            return tokens;
+        } catch(IOException | RuntimeException e) {
+            LOG.fine("Could not read token cache entry " + p + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Stores tokens. The entry is written to a temporary file and moved into place, so concurrent readers
+     * never see a partial entry.
+     * 
+     * @param key
+     * @param tokens Tokens produced by the {@link Tokenizer}
+     * @throws IOException
+     */
+    public void put(long key, List<Token> tokens) throws IOException {
+        // string table, in order of first use
+        HashMap<String, Integer> indices = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        
+        for(Token t : tokens) {
+            String s = switch(t) {
+                case NameToken nt       -> nt.text();
+                case StringToken st     -> st.str();
+                case CommentToken ct    -> ct.comment();
+                default                 -> null;
+            };
+            
+            if(s != null && indices.putIfAbsent(s, strings.size()) == null) strings.add(s);
+        }
+        
+        Path p = entryFile(key),
+             tmp = Files.createTempFile(this.directory, p.getFileName().toString(), ".tmp");
+        
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(key);
+            out.writeInt(strings.size());
+            out.writeInt(tokens.size());
+            
+            for(String s : strings) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                
+                out.writeInt(b.length);
+                out.write(b);
+            }
+            
+            for(Token t : tokens) {
+                switch(t) {
+                    case LineToken lt -> {
+                        out.writeByte(LINE);
+                        out.writeInt(lt.lineNumber());
+                    }
+                    
+                    case NameToken nt -> {
+                        out.writeByte(NAME);
+                        out.writeInt(indices.get(nt.text()));
+                    }
+                    
+                    case NumberToken nt -> {
+                        out.writeByte(NUMBER);
+                        out.writeLong(nt.value());
+                    }
+                    
+                    case SpecialToken st -> {
+                        out.writeByte(SPECIAL);
+                        out.writeChar(st.character());
+                    }
+                    
+                    case StringToken st -> {
+                        out.writeByte(STRING);
+                        out.writeInt(indices.get(st.str()));
+                    }
+                    
+                    case CommentToken ct -> {
+                        out.writeByte(COMMENT);
+                        out.writeInt(indices.get(ct.comment()));
+                    }
+                    
+                    case WhitespaceToken wt -> out.writeByte(WHITESPACE);
+                    
+                    default -> {
+                        LOG.severe("Cannot cache token " + t);
+                        throw new IllegalArgumentException("Cannot cache token " + t);
+                    }
+                }
+            }
+        } catch(IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        
+        LOG.fine("Cached " + tokens.size() + " tokens for " + Long.toHexString(key));
+    }
+    
+    /**
+     * @param key
+     * @return File holding the entry for key
+     */
+    private Path entryFile(long key) {
+        return this.directory.resolve(String.format("%016X.tok", key));
+    }
+}
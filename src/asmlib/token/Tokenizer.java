@@ -1,5 +1,9 @@
 package asmlib.token;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -11,6 +15,8 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import asmlib.token.tokens.*;
+import asmlib.util.metrics.Metrics;
+import asmlib.util.metrics.StageTimer;
 
 /**
  * The {@code Tokenizer} converts a file into generic {@link Token}s with minimal information
@@ -31,6 +37,8 @@ public class Tokenizer {
     
     private static String DEFINITION_MARKER = "%define";
     
+    private static TokenCache TOKEN_CACHE = null;
+    
     // pattern for detecting numbers
     private static Pattern numberPattern = Pattern.compile("0x[0-9a-fA-F_]*|(0d)?[0-9_]*|0o[0-7_]+|0b[01_]*");
     
@@ -44,6 +52,44 @@ public class Tokenizer {
         DOUBLE
     }
     
+    /**
+     * Tokenizes a file, using the token cache if one is set
+     * 
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static List<Token> tokenize(Path file) throws IOException {
+        return tokenize(Files.readAllBytes(file));
+    }
+    
+    /**
+     * Tokenizes the contents of a file, using the token cache if one is set. Contents are decoded as UTF-8.
+     * 
+     * @param contents
+     * @return
+     */
+    public static List<Token> tokenize(byte[] contents) {
+        TokenCache cache = TOKEN_CACHE;
+        
+        if(cache == null) return tokenize(new String(contents, StandardCharsets.UTF_8).lines().toList());
+        
+        long key = TokenCache.key(contents);
+        List<Token> tokens = cache.get(key);
+        
+        if(tokens == null) {
+            tokens = tokenize(new String(contents, StandardCharsets.UTF_8).lines().toList());
+            
+            try {
+                cache.put(key, tokens);
+            } catch(IOException e) {
+                LOG.warning("Could not cache tokens: " + e.getMessage());
+            }
+        }
+        
+        return tokens;
+    }
+    
     /**
      * Tokenizes a set of lines. The line counter matches the indicies of the lines
      * 
@@ -51,6 +97,8 @@ public class Tokenizer {
      */
     public static List<Token> tokenize(List<String> lines) {
         LOG.fine("Begin tokenizing");
+        StageTimer timer = Metrics.begin(Metrics.Stage.TOKENIZE);
+        
         lines = new ArrayList<>(lines); // ensure mutability
         ArrayList<Token> tokens = new ArrayList<>(lines.size() * 2);
         
@@ -299,6 +347,10 @@ public class Tokenizer {
             }
         }
         
+        timer.end();
+        Metrics.count(Metrics.Counter.LINES, lines.size());
+        Metrics.count(Metrics.Counter.TOKENS, tokens.size());
+        
         LOG.fine("Completed successfully");
         return tokens;
     }
@@ -406,6 +458,24 @@ public class Tokenizer {
         DEFINITION_MARKER = s.toLowerCase();
     }
     
+    /**
+     * Sets a cache for tokenized files. Only {@link #tokenize(Path)} and {@link #tokenize(byte[])} use it.
+     * 
+     * @param cache Cache to use, or null for none. Defaults to null
+     */
+    public static void setTokenCache(TokenCache cache) {
+        TOKEN_CACHE = cache;
+    }
+    
+    /**
+     * Describes the settings that affect tokenizing, for keying cached tokens
+     * 
+     * @return
+     */
+    static String configuration() {
+        return INCLUDE_COMMENTS + " " + INCLUDE_WHITESPACE + " " + HANDLE_STRINGS + " " + HANDLE_DEFINITIONS + " " + COMMENT_MARKER + " " + DEFINITION_MARKER;
+    }
+    
     /**
      * Sets the marker the {@link Tokenizer} uses for the start of line-end comments
      * 
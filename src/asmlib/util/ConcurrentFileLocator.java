@@ -0,0 +1,192 @@
+package asmlib.util;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+/**
+ * A FileLocator that can be shared by several workers discovering files in parallel.
+ * Each worker takes a file, processes it, adds any files it includes, and then marks it finished. Every
+ * file is handed out exactly once, and discovery is complete once no files are waiting and none are being
+ * processed.
+ * 
+ * @author Mechafinch
+ */
+public class ConcurrentFileLocator extends FileLocator {
+    
+    private static Logger LOG = Logger.getLogger(ConcurrentFileLocator.class.getName());
+    
+    private int inProgress;
+    
+    private CompletableFuture<Void> completion;
+    
+    /**
+     * Full constructor
+     * 
+     * @param workingDirectory Directory of the current file
+     * @param libraryDirectory Directory of the standard library
+     * @param extensions List of extensions to add to files without extensions. These should contain the .
+     * @param headerExtensions List of extensions to use when looking for corresponding header files
+     */
+    public ConcurrentFileLocator(Path workingDirectory, Path libraryDirectory, List<String> extensions, List<String> headerExtensions) {
+        super(workingDirectory, libraryDirectory, extensions, headerExtensions);
+        
+        this.inProgress = 0;
+        this.completion = new CompletableFuture<>();
+    }
+    
+    /**
+     * Constructor without standard library path
+     * 
+     * @param workingDirectory
+     * @param extensions
+     */
+    public ConcurrentFileLocator(Path workingDirectory, List<String> extensions, List<String> headerExtensions) {
+        super(workingDirectory, extensions, headerExtensions);
+        
+        this.inProgress = 0;
+        this.completion = new CompletableFuture<>();
+    }
+    
+    @Override
+    public synchronized void setWorkingDirectory(Path workingDir) {
+        super.setWorkingDirectory(workingDir);
+    }
+    
+    @Override
+    public synchronized Path getWorkingDirectory() {
+        return super.getWorkingDirectory();
+    }
+    
+    @Override
+    public synchronized Path getHeaderFile(Path file) throws NoSuchFileException {
+        return super.getHeaderFile(file);
+    }
+    
+    @Override
+    public synchronized Path getSourceFile(Path file) throws NoSuchFileException {
+        return super.getSourceFile(file);
+    }
+    
+    @Override
+    public synchronized boolean addFile(Path file) {
+        boolean found = super.addFile(file);
+        
+        // files added after discovery completed start a new round
+        if(this.completion.isDone() && super.hasUnconsumed()) this.completion = new CompletableFuture<>();
+        
+        notifyAll();
+        return found;
+    }
+    
+    @Override
+    public synchronized boolean addFile(Path file, Path includingFile) {
+        return super.addFile(file, includingFile);
+    }
+    
+    @Override
+    public synchronized boolean hasFile(Path file) {
+        return super.hasFile(file);
+    }
+    
+    @Override
+    public synchronized void setDependencyGraph(DependencyGraph graph) {
+        super.setDependencyGraph(graph);
+    }
+    
+    @Override
+    public synchronized DependencyGraph getDependencyGraph() {
+        return super.getDependencyGraph();
+    }
+    
+    @Override
+    public synchronized void invalidateListings() {
+        super.invalidateListings();
+    }
+    
+    @Override
+    public synchronized void invalidateListing(Path dir) {
+        super.invalidateListing(dir);
+    }
+    
+    @Override
+    public synchronized boolean hasUnconsumed() {
+        return super.hasUnconsumed();
+    }
+    
+    /**
+     * Consumes a file without waiting. The file must be passed to {@link #finish(Path)} once processed.
+     * 
+     * @return the file or null if there are none to consume right now
+     */
+    @Override
+    public synchronized Path consume() {
+        Path p = super.consume();
+        
+        if(p != null) this.inProgress++;
+        
+        return p;
+    }
+    
+    /**
+     * Consumes a file, waiting for one to be added if others are still being processed. The file must be
+     * passed to {@link #finish(Path)} once processed.
+     * 
+     * @return the file, or null once discovery is complete
+     * @throws InterruptedException
+     */
+    public synchronized Path take() throws InterruptedException {
+        while(true) {
+            Path p = consume();
+            if(p != null) return p;
+            
+            if(this.inProgress == 0) {
+                this.completion.complete(null);
+                return null;
+            }
+            
+            wait();
+        }
+    }
+    
+    /**
+     * Marks a consumed file as processed. Files it includes must be added before this is called.
+     * 
+     * @param file
+     */
+    public synchronized void finish(Path file) {
+        if(this.inProgress == 0) throw new IllegalStateException("No files are being processed");
+        
+        this.inProgress--;
+        
+        LOG.finest(() -> "Finished " + file);
+        
+        if(this.inProgress == 0 && !super.hasUnconsumed()) {
+            LOG.fine("File discovery complete");
+            this.completion.complete(null);
+        }
+        
+        notifyAll();
+    }
+    
+    /**
+     * Waits until every added file has been consumed and finished
+     * 
+     * @throws InterruptedException
+     */
+    public synchronized void awaitCompletion() throws InterruptedException {
+        while(this.inProgress != 0 || super.hasUnconsumed()) wait();
+    }
+    
+    /**
+     * Gets the future for the current round of discovery. A new round starts whenever files are added after
+     * the previous one completed, so this should be called after adding the files to wait for.
+     * 
+     * @return A future completed once every added file has been consumed and finished
+     */
+    public synchronized CompletableFuture<Void> completion() {
+        return this.completion;
+    }
+}
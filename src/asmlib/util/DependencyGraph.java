@@ -0,0 +1,346 @@
+package asmlib.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * The include graph of a project, along with the state of each file as of the last build, for deciding
+ * what needs to be rebuilt. Translation units are the files that are built on their own. Every other file
+ * is only built as part of the units that include it, directly or indirectly.
+ * <p>
+ * Files are compared by modification time and size first, and by a hash of their contents only if those
+ * differ, so touching a file without changing it does not cause a rebuild.
+ * </p>
+ * 
+ * @author Mechafinch
+ */
+public class DependencyGraph {
+    
+    private static Logger LOG = Logger.getLogger(DependencyGraph.class.getName());
+    
+    private static final int MAGIC = 0x44455047, // DEPG
+                             VERSION = 1;
+    
+    private static class Node {
+        Set<Path> includes = new LinkedHashSet<>();
+        
+        boolean unit = false,
+                recorded = false;
+        
+        long modified,
+             size,
+             hash;
+    }
+    
+    private Map<Path, Node> nodes;
+    
+    /**
+     * Creates an empty graph
+     */
+    public DependencyGraph() {
+        this.nodes = new LinkedHashMap<>();
+    }
+    
+    /**
+     * Marks a file as a translation unit
+     * 
+     * @param file
+     */
+    public synchronized void addUnit(Path file) {
+        node(file).unit = true;
+    }
+    
+    /**
+     * Records that one file includes another
+     * 
+     * @param from Including file
+     * @param to Included file
+     */
+    public synchronized void addInclude(Path from, Path to) {
+        node(from).includes.add(key(to));
+        node(to);
+    }
+    
+    /**
+     * Forgets the includes of a file, so they can be recorded again when it is rebuilt
+     * 
+     * @param file
+     */
+    public synchronized void clearIncludes(Path file) {
+        Node n = this.nodes.get(key(file));
+        
+        if(n != null) n.includes.clear();
+    }
+    
+    /**
+     * @param file
+     * @return Files directly included by file
+     */
+    public synchronized Set<Path> getIncludes(Path file) {
+        Node n = this.nodes.get(key(file));
+        
+        return (n == null) ? Set.of() : Set.copyOf(n.includes);
+    }
+    
+    /**
+     * @return Every translation unit
+     */
+    public synchronized Set<Path> getUnits() {
+        Set<Path> units = new LinkedHashSet<>();
+        
+        for(Map.Entry<Path, Node> e : this.nodes.entrySet()) {
+            if(e.getValue().unit) units.add(e.getKey());
+        }
+        
+        return units;
+    }
+    
+    /**
+     * Records the current state of every file, to compare against later. Call after a successful build.
+     * 
+     * @throws IOException
+     */
+    public synchronized void update() throws IOException {
+        for(Map.Entry<Path, Node> e : this.nodes.entrySet()) {
+            Node n = e.getValue();
+            
+            if(!Files.exists(e.getKey())) {
+                n.recorded = false;
+                continue;
+            }
+            
+            BasicFileAttributes attr = Files.readAttributes(e.getKey(), BasicFileAttributes.class);
+            
+            // only rehash what may have changed
+            if(!n.recorded || n.modified != attr.lastModifiedTime().toMillis() || n.size != attr.size()) {
+                n.hash = hash(e.getKey());
+            }
+            
+            n.modified = attr.lastModifiedTime().toMillis();
+            n.size = attr.size();
+            n.recorded = true;
+        }
+    }
+    
+    /**
+     * Finds the files whose contents differ from when they were recorded, including files that were never
+     * recorded and files that no longer exist
+     * 
+     * @return Changed files
+     * @throws IOException
+     */
+    public synchronized Set<Path> getChangedFiles() throws IOException {
+        Set<Path> changed = new LinkedHashSet<>();
+        
+        for(Map.Entry<Path, Node> e : this.nodes.entrySet()) {
+            Node n = e.getValue();
+            Path p = e.getKey();
+            
+            if(!n.recorded || !Files.exists(p)) {
+                changed.add(p);
+                continue;
+            }
+            
+            BasicFileAttributes attr = Files.readAttributes(p, BasicFileAttributes.class);
+            
+            if(n.modified == attr.lastModifiedTime().toMillis() && n.size == attr.size()) continue;
+            
+            if(n.size != attr.size() || n.hash != hash(p)) changed.add(p);
+        }
+        
+        LOG.fine(changed.size() + " of " + this.nodes.size() + " files changed");
+        
+        return changed;
+    }
+    
+    /**
+     * Finds the translation units that must be rebuilt
+     * 
+     * @param changed Changed files
+     * @return Units that are changed or include a changed file
+     */
+    public synchronized Set<Path> getUnitsToRebuild(Collection<Path> changed) {
+        // who includes each file
+        HashMap<Path, List<Path>> includers = new HashMap<>();
+        
+        for(Map.Entry<Path, Node> e : this.nodes.entrySet()) {
+            for(Path p : e.getValue().includes) {
+                includers.computeIfAbsent(p, k -> new ArrayList<>()).add(e.getKey());
+            }
+        }
+        
+        // walk up from each changed file
+        HashSet<Path> reached = new HashSet<>();
+        ArrayDeque<Path> queue = new ArrayDeque<>();
+        
+        for(Path p : changed) {
+            if(reached.add(key(p))) queue.add(key(p));
+        }
+        
+        while(!queue.isEmpty()) {
+            for(Path p : includers.getOrDefault(queue.poll(), List.of())) {
+                if(reached.add(p)) queue.add(p);
+            }
+        }
+        
+        Set<Path> units = new LinkedHashSet<>();
+        
+        for(Map.Entry<Path, Node> e : this.nodes.entrySet()) {
+            if(e.getValue().unit && reached.contains(e.getKey())) units.add(e.getKey());
+        }
+        
+        return units;
+    }
+    
+    /**
+     * Finds the translation units that must be rebuilt because of files changed since the last update
+     * 
+     * @return
+     * @throws IOException
+     */
+    public Set<Path> getUnitsToRebuild() throws IOException {
+        return getUnitsToRebuild(getChangedFiles());
+    }
+    
+    /**
+     * Writes the graph to a file. Paths are written once and includes refer to them by index.
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void save(Path file) throws IOException {
+        HashMap<Path, Integer> indices = new HashMap<>();
+        
+        for(Path p : this.nodes.keySet()) indices.put(p, indices.size());
+        
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.nodes.size());
+            
+            for(Map.Entry<Path, Node> e : this.nodes.entrySet()) {
+                Node n = e.getValue();
+                
+                out.writeUTF(e.getKey().toString());
+                out.writeByte((n.unit ? 1 : 0) | (n.recorded ? 2 : 0));
+                out.writeLong(n.modified);
+                out.writeLong(n.size);
+                out.writeLong(n.hash);
+                out.writeInt(n.includes.size());
+                
+                for(Path p : n.includes) out.writeInt(indices.get(p));
+            }
+        }
+    }
+    
+    /**
+     * Reads a graph written by {@link #save(Path)}
+     * 
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static DependencyGraph load(Path file) throws IOException {
+        DependencyGraph g = new DependencyGraph();
+        
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a dependency graph: " + file);
+            }
+            
+            int count = in.readInt();
+            Path[] paths = new Path[count];
+            int[][] includes = new int[count][];
+            
+            for(int i = 0; i < count; i++) {
+                paths[i] = Path.of(in.readUTF());
+                Node n = g.node(paths[i]);
+                
+                int flags = in.readByte();
+                n.unit = (flags & 1) != 0;
+                n.recorded = (flags & 2) != 0;
+                n.modified = in.readLong();
+                n.size = in.readLong();
+                n.hash = in.readLong();
+                
+                includes[i] = new int[in.readInt()];
+                for(int j = 0; j < includes[i].length; j++) includes[i][j] = in.readInt();
+            }
+            
+            for(int i = 0; i < count; i++) {
+                for(int j : includes[i]) g.node(paths[i]).includes.add(paths[j]);
+            }
+        }
+        
+        return g;
+    }
+    
+    /**
+     * Loads a graph if the file exists, otherwise creates an empty one
+     * 
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static DependencyGraph loadOrCreate(Path file) throws IOException {
+        try {
+            return load(file);
+        } catch(NoSuchFileException e) {
+            return new DependencyGraph();
+        }
+    }
+    
+    /**
+     * Gets or creates the node of a file
+     * 
+     * @param file
+     * @return
+     */
+    private Node node(Path file) {
+        return this.nodes.computeIfAbsent(key(file), k -> new Node());
+    }
+    
+    /**
+     * @param file
+     * @return The form of a path used as a key
+     */
+    private static Path key(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+    
+    /**
+     * Hashes the contents of a file with FNV-1a
+     * 
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private static long hash(Path file) throws IOException {
+        long h = 0xCBF29CE484222325l;
+        
+        for(byte b : Files.readAllBytes(file)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001B3l;
+        }
+        
+        return h;
+    }
+}
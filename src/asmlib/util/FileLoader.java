@@ -0,0 +1,126 @@
+package asmlib.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/**
+ * Reads files on virtual threads, one thread per file, with a limit on how many reads are in flight at once.
+ * Reads are cheap to issue, so thousands of small files are read at whatever concurrency the filesystem
+ * allows, while parsing happens wherever the returned futures are consumed.
+ * 
+ * @author Mechafinch
+ */
+public class FileLoader implements AutoCloseable {
+    
+    private static Logger LOG = Logger.getLogger(FileLoader.class.getName());
+    
+    /**
+     * Reads a file into some form
+     * 
+     * @param <T>
+     */
+    @FunctionalInterface
+    public interface Reader<T> {
+        T read(Path p) throws IOException;
+    }
+    
+    private ExecutorService executor;
+    
+    private Semaphore permits;
+    
+    /**
+     * Creates a loader
+     * 
+     * @param maxConcurrentReads Maximum number of files read at once
+     */
+    public FileLoader(int maxConcurrentReads) {
+        if(maxConcurrentReads < 1) {
+            LOG.severe("Read concurrency must be positive");
+            throw new IllegalArgumentException("Read concurrency must be positive");
+        }
+        
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.permits = new Semaphore(maxConcurrentReads);
+    }
+    
+    /**
+     * Reads a file on its own virtual thread
+     * 
+     * @param p File
+     * @param reader Reads the file. Runs on the virtual thread, so should only do blocking work
+     * @return Future completed with the result, or exceptionally if the read failed
+     */
+    public <T> CompletableFuture<T> load(Path p, Reader<T> reader) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        
+        this.executor.execute(() -> {
+            try {
+                this.permits.acquire();
+                
+                try {
+                    LOG.finest(() -> "Reading " + p);
+                    result.complete(reader.read(p));
+                } finally {
+                    this.permits.release();
+                }
+            } catch(IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            } catch(InterruptedException e) {
+                result.completeExceptionally(e);
+                Thread.currentThread().interrupt();
+            }
+        });
+        
+        return result;
+    }
+    
+    /**
+     * Reads the contents of a file on its own virtual thread
+     * 
+     * @param p File
+     * @return Future completed with the file's bytes
+     */
+    public CompletableFuture<byte[]> load(Path p) {
+        return load(p, Files::readAllBytes);
+    }
+    
+    /**
+     * Reads the contents of several files, each on its own virtual thread
+     * 
+     * @param files
+     * @return Futures in the same order as files
+     */
+    public List<CompletableFuture<byte[]>> loadAll(Collection<Path> files) {
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>(files.size());
+        
+        for(Path p : files) futures.add(load(p));
+        
+        return futures;
+    }
+    
+    /**
+     * Waits for reads in flight, then stops accepting new ones
+     */
+    @Override
+    public void close() {
+        this.executor.close();
+    }
+    
+    /**
+     * Interrupts reads in flight, along with anything run on their threads once they complete, and waits for
+     * them to stop
+     */
+    public void cancel() {
+        this.executor.shutdownNow();
+        this.executor.close();
+    }
+}
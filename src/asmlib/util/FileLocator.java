@@ -1,17 +1,26 @@
 package asmlib.util;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * A utility for locating files.
  * The object tracks a number of files, those that have been consumed and those that have not.
+ * Directories are listed once when first searched. If files are created while the locator is in use, call
+ * {@link #invalidateListings()} so they can be found.
  * 
  * @author Mechafinch
  */
@@ -22,12 +31,18 @@ public class FileLocator {
     private Path workingDirectory,
                  libraryDirectory;
     
-    private List<Path> knownFiles;
+    // every suffix of every known file, so endsWith checks are a single lookup
+    private Set<Path> knownSuffixes;
+    
+    // file names in each directory searched, listed once
+    private Map<Path, Set<Path>> listings;
     
     private Deque<Path> unconsumedFiles;
     
     private boolean hasStandard;
     
+    private DependencyGraph dependencies;
+    
     List<String> extensions,
                  headerExtensions;
     
@@ -41,12 +56,13 @@ public class FileLocator {
      */
     public FileLocator(Path workingDirectory, Path libraryDirectory, List<String> extensions, List<String> headerExtensions) {
         this.workingDirectory = workingDirectory;
-        this.libraryDirectory = libraryDirectory.toAbsolutePath();
+        this.libraryDirectory = (libraryDirectory == null) ? null : libraryDirectory.toAbsolutePath();
         this.extensions = extensions;
         this.headerExtensions = headerExtensions;
         
         this.unconsumedFiles = new ArrayDeque<>();
-        this.knownFiles = new ArrayList<>();
+        this.knownSuffixes = new HashSet<>();
+        this.listings = new HashMap<>();
         this.hasStandard = true;
     }
     
@@ -76,6 +92,13 @@ public class FileLocator {
         LOG.finer(() -> "Working directory is now " + this.workingDirectory);
     }
     
+    /**
+     * @return The current working directory
+     */
+    public Path getWorkingDirectory() {
+        return this.workingDirectory;
+    }
+    
     /**
      * Returns the header file associsated with the given file
      * 
@@ -97,7 +120,7 @@ public class FileLocator {
         // working
         for(String extension : this.headerExtensions) {
             Path p2 = file.resolveSibling(file.getFileName() + extension);
-            if(Files.exists(p = this.workingDirectory.resolve(p2))) {
+            if(exists(p = this.workingDirectory.resolve(p2))) {
                 LOG.finest("Found file in working directory: " + p);
                 return p;
             }
@@ -107,7 +130,7 @@ public class FileLocator {
         if(this.hasStandard) {
             for(String extension : this.headerExtensions) {
                 Path p2 = file.resolveSibling(file.getFileName() + extension);
-                if(Files.exists(p = this.libraryDirectory.resolve(p2))) {
+                if(exists(p = this.libraryDirectory.resolve(p2))) {
                     LOG.finest("Found file in standard library: " + p);
                     return p;
                 }
@@ -137,12 +160,12 @@ public class FileLocator {
                 return file;
             }
             
-            if(Files.exists(p = this.workingDirectory.resolve(file))) {
+            if(exists(p = this.workingDirectory.resolve(file))) {
                 LOG.finest("Found file in working directory: " + p);
                 return p;
             }
             
-            if(this.hasStandard && Files.exists(p = this.libraryDirectory.resolve(file))) {
+            if(this.hasStandard && exists(p = this.libraryDirectory.resolve(file))) {
                 LOG.finest("Found file in standard library: " + p);
                 return p;
             }
@@ -151,7 +174,7 @@ public class FileLocator {
             // working
             for(String extension : this.extensions) {
                 Path p2 = file.resolveSibling(file.getFileName() + extension);
-                if(Files.exists(p = this.workingDirectory.resolve(p2))) {
+                if(exists(p = this.workingDirectory.resolve(p2))) {
                     LOG.finest("Found file in working directory: " + p);
                     return p;
                 }
@@ -161,7 +184,7 @@ public class FileLocator {
             if(this.hasStandard) {
                 for(String extension : this.extensions) {
                     Path p2 = file.resolveSibling(file.getFileName() + extension);
-                    if(Files.exists(p = this.libraryDirectory.resolve(p2))) {
+                    if(exists(p = this.libraryDirectory.resolve(p2))) {
                         LOG.finest("Found file in standard library: " + p);
                         return p;
                     }
@@ -192,8 +215,7 @@ public class FileLocator {
             // file has an extension, do full search
             if(file.isAbsolute()) {
                 LOG.finer(() -> "Added absolute file " + file);
-                this.knownFiles.add(file);
-                this.unconsumedFiles.add(file);
+                this.addKnown(file);
                 return true;
             }
             
@@ -224,6 +246,48 @@ public class FileLocator {
         }
     }
     
+    /**
+     * Adds a file included by another, searching relative to the including file's directory. If a dependency
+     * graph is set, the include is recorded in it.
+     * 
+     * @param file File to add
+     * @param includingFile File that includes it
+     * @return true if the file was found, false if it was not found
+     */
+    public boolean addFile(Path file, Path includingFile) {
+        Path workingDir = this.workingDirectory;
+        
+        try {
+            setWorkingDirectory(includingFile);
+            
+            Path p = getSourceFile(file);
+            
+            if(this.dependencies != null) this.dependencies.addInclude(includingFile, p);
+            
+            return addFile(p);
+        } catch(NoSuchFileException e) {
+            return false;
+        } finally {
+            this.workingDirectory = workingDir;
+        }
+    }
+    
+    /**
+     * Sets a graph to record includes in
+     * 
+     * @param graph Dependency graph, or null to not record includes
+     */
+    public void setDependencyGraph(DependencyGraph graph) {
+        this.dependencies = graph;
+    }
+    
+    /**
+     * @return The graph includes are recorded in, or null if there is none
+     */
+    public DependencyGraph getDependencyGraph() {
+        return this.dependencies;
+    }
+    
     /**
      * Determines if the file is known
      *  
@@ -233,12 +297,8 @@ public class FileLocator {
     public boolean hasFile(Path file) {
         // check extensions if not provided
         if(file.getFileName().toString().contains(".")) {
-            // has extension, search
-            for(Path p : knownFiles) {
-                if(p.endsWith(file)) return true;
-            }
-            
-            return false;
+            // has extension, look up
+            return this.knownSuffixes.contains(file);
         } else {
             // no extension, try them
             for(String extension : this.extensions) {
@@ -262,19 +322,17 @@ public class FileLocator {
     private boolean searchFile(Path file, boolean working, boolean library) {
         Path p;
         if(working) {
-            if(Files.exists(p = this.workingDirectory.resolve(file))) {
+            if(exists(p = this.workingDirectory.resolve(file))) {
                 LOG.finer("Added file from working directory: " + p);
-                this.knownFiles.add(p);
-                this.unconsumedFiles.add(p);
+                this.addKnown(p);
                 return true;
             }
         }
         
         if(library && this.hasStandard) {
-            if(Files.exists(p = this.libraryDirectory.resolve(file))) {
+            if(exists(p = this.libraryDirectory.resolve(file))) {
                 LOG.finer("Added file from standard library: " + p);
-                this.knownFiles.add(p);
-                this.unconsumedFiles.add(p);
+                this.addKnown(p);
                 return true;
             }
         }
@@ -282,6 +340,71 @@ public class FileLocator {
         return false;
     }
     
+    /**
+     * Records a file as known and queues it to be consumed, if it isn't known already
+     * 
+     * @param file
+     */
+    private void addKnown(Path file) {
+        // the same file may be reached through different relative paths
+        file = file.toAbsolutePath().normalize();
+        
+        if(!this.knownSuffixes.add(file)) return;
+        
+        for(int i = 0; i < file.getNameCount(); i++) {
+            this.knownSuffixes.add(file.subpath(i, file.getNameCount()));
+        }
+        
+        this.unconsumedFiles.add(file);
+    }
+    
+    /**
+     * Checks if a file exists using the cached listing of its directory
+     * 
+     * @param file
+     * @return
+     */
+    private boolean exists(Path file) {
+        Path dir = file.toAbsolutePath().normalize().getParent(),
+             name = file.toAbsolutePath().normalize().getFileName();
+        
+        if(dir == null || name == null) return Files.exists(file);
+        
+        return this.listings.computeIfAbsent(dir, FileLocator::list).contains(name);
+    }
+    
+    /**
+     * Lists the file names in a directory
+     * 
+     * @param dir
+     * @return names, or an empty set if the directory can't be listed
+     */
+    private static Set<Path> list(Path dir) {
+        LOG.finest(() -> "Listing " + dir);
+        
+        try(Stream<Path> s = Files.list(dir)) {
+            return s.map(Path::getFileName).collect(Collectors.toSet());
+        } catch(IOException | UncheckedIOException e) {
+            return Set.of();
+        }
+    }
+    
+    /**
+     * Discards cached directory listings, so that files created since they were listed can be found
+     */
+    public void invalidateListings() {
+        this.listings.clear();
+    }
+    
+    /**
+     * Discards the cached listing of a directory
+     * 
+     * @param dir
+     */
+    public void invalidateListing(Path dir) {
+        this.listings.remove(dir.toAbsolutePath().normalize());
+    }
+    
     /**
      * @return true if there are unconsumed files
      */
@@ -0,0 +1,106 @@
+package asmlib.util.metrics;
+
+import java.util.EnumSet;
+
+import asmlib.util.metrics.Metrics.Counter;
+import asmlib.util.metrics.Metrics.Stage;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Reports metrics as Java Flight Recorder events, {@code asmlib.Stage} for each stage and
+ * {@code asmlib.Count} for each count. When no recording has the events enabled, stages are not measured
+ * and counts are dropped.
+ * <p>
+ * Object file reads and writes, placement, and relocation already have their own, more detailed events
+ * ({@code asmlib.ObjectRead}, {@code asmlib.ObjectWrite} and {@code asmlib.RelocationPhase}), so those
+ * stages are not reported again here.
+ * </p>
+ * 
+ * @author Mechafinch
+ */
+public class JfrMetricsSink implements MetricsSink {
+    
+    // stages recorded by the relocation package's own events
+    private static final EnumSet<Stage> COVERED = EnumSet.of(Stage.OBJECT_READ, Stage.OBJECT_WRITE, Stage.PLACEMENT, Stage.RELOCATION);
+    
+    @Name("asmlib.Stage")
+    @Label("Pipeline Stage")
+    @Description("A stage of tokenizing, lexing, or linking")
+    @Category({ "AssemblerLib", "Pipeline" })
+    @StackTrace(false)
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+        
+        @Label("Allocated")
+        @Description("Bytes allocated by the thread running the stage")
+        @DataAmount
+        long allocated;
+    }
+    
+    @Name("asmlib.Count")
+    @Label("Pipeline Count")
+    @Category({ "AssemblerLib", "Pipeline" })
+    @StackTrace(false)
+    static class CountEvent extends Event {
+        @Label("Counter")
+        String counter;
+        
+        @Label("Amount")
+        long amount;
+    }
+    
+    /**
+     * A timer backed by a JFR event, so the event's duration is the stage's
+     */
+    private static class EventTimer extends StageTimer {
+        StageEvent event;
+        
+        EventTimer(Stage stage) {
+            super(stage);
+            
+            this.event = new StageEvent();
+            this.event.stage = stage.name();
+            this.event.begin();
+        }
+        
+        @Override
+        protected void finished(long nanos, long allocatedBytes) {
+            this.event.end();
+            
+            if(this.event.shouldCommit()) {
+                this.event.allocated = allocatedBytes;
+                this.event.commit();
+            }
+        }
+    }
+    
+    /**
+     * Creates a sink. Events are only recorded while a recording has them enabled.
+     */
+    public JfrMetricsSink() { }
+    
+    @Override
+    public StageTimer begin(Stage stage) {
+        if(COVERED.contains(stage) || !new StageEvent().isEnabled()) return StageTimer.NONE;
+        
+        return new EventTimer(stage);
+    }
+    
+    @Override
+    public void count(Counter counter, long amount) {
+        CountEvent event = new CountEvent();
+        
+        if(event.isEnabled()) {
+            event.counter = counter.name();
+            event.amount = amount;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package asmlib.util.metrics;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Entry point for pipeline metrics. The {@link asmlib.token.Tokenizer}, {@link asmlib.lex.Lexer},
+ * {@link asmlib.util.relocation.RelocatableObject} and {@link asmlib.util.relocation.Relocator} report
+ * stage timings and counts here, which are forwarded to the current {@link MetricsSink}.
+ * <p>
+ * By default nothing is recorded, and reporting costs a field read and a comparison. Set a sink with
+ * {@link #setSink(MetricsSink)}, such as {@link JfrMetricsSink} to profile with Java Flight Recorder or
+ * {@link SummaryMetricsSink} to total everything in memory.
+ * </p>
+ * 
+ * @author Mechafinch
+ */
+public class Metrics {
+    
+    /**
+     * Timed stages of the pipeline
+     */
+    public enum Stage {
+        TOKENIZE,
+        LEX,
+        OBJECT_READ,
+        OBJECT_WRITE,
+        PLACEMENT,
+        RELOCATION
+    }
+    
+    /**
+     * Counted quantities
+     */
+    public enum Counter {
+        /** Source lines tokenized */
+        LINES,
+        /** Tokens produced by the tokenizer */
+        TOKENS,
+        /** Symbols produced by the lexer */
+        SYMBOLS,
+        /** Bytes of object files read */
+        BYTES_READ,
+        /** Bytes of object files written */
+        BYTES_WRITTEN,
+        /** Objects placed by the relocator */
+        OBJECTS,
+        /** Reference sites patched by the relocator */
+        RELOCATIONS,
+        /** Bytes left unused between placed objects */
+        GAP_BYTES
+    }
+    
+    // the thread MXBean is only loaded once something is measured
+    private static class Allocation {
+        static final com.sun.management.ThreadMXBean THREADS;
+        
+        static {
+            THREADS = (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean t && t.isThreadAllocatedMemorySupported()) ? t : null;
+        }
+    }
+    
+    private static volatile MetricsSink SINK = MetricsSink.NONE;
+    
+    private static volatile boolean MEASURE_ALLOCATION = true;
+    
+    private Metrics() { }
+    
+    /**
+     * Starts timing a stage. Call {@link StageTimer#end()} on the result when the stage finishes.
+     * 
+     * @param stage
+     * @return
+     */
+    public static StageTimer begin(Stage stage) {
+        MetricsSink sink = SINK;
+        
+        return (sink == MetricsSink.NONE) ? StageTimer.NONE : sink.begin(stage);
+    }
+    
+    /**
+     * Adds to a counter
+     * 
+     * @param counter
+     * @param amount
+     */
+    public static void count(Counter counter, long amount) {
+        MetricsSink sink = SINK;
+        
+        if(sink != MetricsSink.NONE) sink.count(counter, amount);
+    }
+    
+    /**
+     * @return {@code true} if a sink is set, for callers that need to do work to compute a count
+     */
+    public static boolean isEnabled() {
+        return SINK != MetricsSink.NONE;
+    }
+    
+    /**
+     * Gets the number of bytes allocated by the current thread so far
+     * 
+     * @return Allocated bytes, or 0 if allocation is not measured
+     */
+    static long allocatedBytes() {
+        if(!MEASURE_ALLOCATION || Allocation.THREADS == null) return 0;
+        
+        return Allocation.THREADS.getCurrentThreadAllocatedBytes();
+    }
+    
+    /**
+     * Sets where metrics are reported
+     * 
+     * @param sink The sink, or null to stop recording. Defaults to null
+     */
+    public static void setSink(MetricsSink sink) {
+        SINK = (sink == null) ? MetricsSink.NONE : sink;
+    }
+    
+    /**
+     * @return The current sink, or {@link MetricsSink#NONE} if nothing is recorded
+     */
+    public static MetricsSink getSink() {
+        return SINK;
+    }
+    
+    /**
+     * Sets whether stages measure the bytes allocated by the calling thread. Work a stage hands to other
+     * threads is not included either way.
+     * 
+     * @param b Defaults to {@code true}
+     */
+    public static void setMeasureAllocation(boolean b) {
+        MEASURE_ALLOCATION = b;
+    }
+}
@@ -0,0 +1,40 @@
+package asmlib.util.metrics;
+
+import asmlib.util.metrics.Metrics.Counter;
+import asmlib.util.metrics.Metrics.Stage;
+
+/**
+ * Receives pipeline metrics. Set with {@link Metrics#setSink(MetricsSink)}. Sinks are called from whichever
+ * thread did the work, so must be thread safe.
+ * 
+ * @author Mechafinch
+ */
+public interface MetricsSink {
+    
+    /**
+     * Records nothing
+     */
+    public static final MetricsSink NONE = new MetricsSink() {
+        @Override
+        public StageTimer begin(Stage stage) { return StageTimer.NONE; }
+        
+        @Override
+        public void count(Counter counter, long amount) { }
+    };
+    
+    /**
+     * Called when a stage starts
+     * 
+     * @param stage
+     * @return A timer that reports back to this sink when the stage ends
+     */
+    public StageTimer begin(Stage stage);
+    
+    /**
+     * Called when a counter is added to
+     * 
+     * @param counter
+     * @param amount
+     */
+    public void count(Counter counter, long amount);
+}
@@ -0,0 +1,68 @@
+package asmlib.util.metrics;
+
+import asmlib.util.metrics.Metrics.Stage;
+
+/**
+ * Times a single run of a stage, measuring wall time and the bytes allocated by the thread that started it.
+ * Sinks subclass this to receive the measurements.
+ * 
+ * @author Mechafinch
+ */
+public abstract class StageTimer {
+    
+    /**
+     * Measures nothing
+     */
+    static final StageTimer NONE = new StageTimer() {
+        @Override
+        public void end() { }
+        
+        @Override
+        protected void finished(long nanos, long allocatedBytes) { }
+    };
+    
+    private Stage stage;
+    
+    private long startNanos,
+                 startAllocated;
+    
+    /**
+     * Starts timing
+     * 
+     * @param stage
+     */
+    protected StageTimer(Stage stage) {
+        this.stage = stage;
+        this.startAllocated = Metrics.allocatedBytes();
+        this.startNanos = System.nanoTime();
+    }
+    
+    /**
+     * Creates a timer that does not measure
+     */
+    private StageTimer() {
+        this.stage = null;
+    }
+    
+    /**
+     * Ends the stage, reporting its measurements. Must be called from the thread that started it.
+     */
+    public void end() {
+        long nanos = System.nanoTime() - this.startNanos;
+        
+        finished(nanos, Metrics.allocatedBytes() - this.startAllocated);
+    }
+    
+    /**
+     * Called when the stage ends
+     * 
+     * @param nanos Wall time of the stage
+     * @param allocatedBytes Bytes allocated by the thread during the stage, or 0 if not measured
+     */
+    protected abstract void finished(long nanos, long allocatedBytes);
+    
+    /**
+     * @return The stage being timed
+     */
+    public Stage getStage() { return this.stage; }
+}
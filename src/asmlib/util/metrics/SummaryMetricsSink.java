@@ -0,0 +1,112 @@
+package asmlib.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import asmlib.util.metrics.Metrics.Counter;
+import asmlib.util.metrics.Metrics.Stage;
+
+/**
+ * Totals metrics in memory, for reporting at the end of a build or benchmark
+ * 
+ * @author Mechafinch
+ */
+public class SummaryMetricsSink implements MetricsSink {
+    
+    private static final int STAGES = Stage.values().length;
+    
+    // by stage ordinal: runs, nanos, allocated bytes
+    private AtomicLongArray stages;
+    
+    private AtomicLongArray counters;
+    
+    /**
+     * Creates an empty summary
+     */
+    public SummaryMetricsSink() {
+        this.stages = new AtomicLongArray(STAGES * 3);
+        this.counters = new AtomicLongArray(Counter.values().length);
+    }
+    
+    @Override
+    public StageTimer begin(Stage stage) {
+        return new StageTimer(stage) {
+            @Override
+            protected void finished(long nanos, long allocatedBytes) {
+                int i = stage.ordinal();
+                
+                SummaryMetricsSink.this.stages.incrementAndGet(i);
+                SummaryMetricsSink.this.stages.addAndGet(i + STAGES, nanos);
+                SummaryMetricsSink.this.stages.addAndGet(i + STAGES * 2, allocatedBytes);
+            }
+        };
+    }
+    
+    @Override
+    public void count(Counter counter, long amount) {
+        this.counters.addAndGet(counter.ordinal(), amount);
+    }
+    
+    /**
+     * @param stage
+     * @return Number of times the stage ran
+     */
+    public long getRuns(Stage stage) { return this.stages.get(stage.ordinal()); }
+    
+    /**
+     * @param stage
+     * @return Total wall time of the stage in nanoseconds
+     */
+    public long getNanos(Stage stage) { return this.stages.get(stage.ordinal() + STAGES); }
+    
+    /**
+     * @param stage
+     * @return Total bytes allocated during the stage
+     */
+    public long getAllocatedBytes(Stage stage) { return this.stages.get(stage.ordinal() + STAGES * 2); }
+    
+    /**
+     * @param counter
+     * @return Total of the counter
+     */
+    public long getCount(Counter counter) { return this.counters.get(counter.ordinal()); }
+    
+    /**
+     * Gets a counter per second of a stage's wall time, such as tokens per second of tokenizing
+     * 
+     * @param counter
+     * @param stage
+     * @return Rate per second, or 0 if the stage has not run
+     */
+    public double getRate(Counter counter, Stage stage) {
+        long nanos = getNanos(stage);
+        
+        return (nanos == 0) ? 0 : getCount(counter) * 1e9 / nanos;
+    }
+    
+    /**
+     * Clears all totals
+     */
+    public void reset() {
+        for(int i = 0; i < this.stages.length(); i++) this.stages.set(i, 0);
+        for(int i = 0; i < this.counters.length(); i++) this.counters.set(i, 0);
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        
+        for(Stage s : Stage.values()) {
+            if(getRuns(s) == 0) continue;
+            
+            sb.append(String.format("%-12s %8d runs %12.3f ms %14d bytes allocated%n", s, getRuns(s), getNanos(s) / 1e6, getAllocatedBytes(s)));
+        }
+        
+        for(Counter c : Counter.values()) {
+            if(getCount(c) == 0) continue;
+            
+            sb.append(String.format("%-12s %14d%n", c, getCount(c)));
+        }
+        
+        return sb.toString();
+    }
+}
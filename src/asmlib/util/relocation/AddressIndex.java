@@ -0,0 +1,196 @@
+package asmlib.util.relocation;
+
+import java.util.Arrays;
+
+/**
+ * An immutable index from addresses to symbol names, for symbolizing addresses after relocation.
+ * Addresses are kept in a sorted primitive array and searched with a binary search, so queries do not
+ * allocate. An optional direct-mapped cache, also held in primitive arrays, remembers the result of recent
+ * searches for hot addresses.
+ * <p>
+ * Where several symbols share an address, the one defined last is used. Instances are safe to query from
+ * multiple threads.
+ * </p>
+ * 
+ * @author Mechafinch
+ */
+public class AddressIndex {
+    
+    private long[] addresses;
+    
+    private String[] names;
+    
+    // cached search results, as an address and its floor index in each slot
+    private long[] cachedAddresses;
+    
+    private int[] cachedFloors;
+    
+    private int cacheMask;
+    
+    /**
+     * Builds an index of the defined symbols of a symbol table
+     * 
+     * @param symbols Symbol table
+     * @param cacheSize Number of cache entries, rounded up to a power of two. 0 for no cache
+     */
+    public AddressIndex(SymbolTable symbols, int cacheSize) {
+        // defined symbols by address, then by ID so the last defined comes last
+        Integer[] order = new Integer[symbols.size()];
+        int n = 0;
+        
+        for(int id = 0; id < symbols.size(); id++) {
+            if(symbols.isDefined(id)) order[n++] = id;
+        }
+        
+        order = Arrays.copyOf(order, n);
+        Arrays.sort(order, (a, b) -> {
+            int c = Long.compare(symbols.address(a), symbols.address(b));
+            return (c != 0) ? c : Integer.compare(a, b);
+        });
+        
+        // keep the last of each address
+        this.addresses = new long[n];
+        this.names = new String[n];
+        int size = 0;
+        
+        for(int i = 0; i < n; i++) {
+            long addr = symbols.address(order[i]);
+            
+            if(size != 0 && this.addresses[size - 1] == addr) size--;
+            
+            this.addresses[size] = addr;
+            this.names[size] = symbols.name(order[i]);
+            size++;
+        }
+        
+        this.addresses = Arrays.copyOf(this.addresses, size);
+        this.names = Arrays.copyOf(this.names, size);
+        
+        if(cacheSize > 0) {
+            int entries = Integer.highestOneBit(cacheSize - 1) << 1;
+            if(entries <= 0) entries = 1;
+            
+            this.cachedAddresses = new long[entries];
+            this.cachedFloors = new int[entries];
+            this.cacheMask = entries - 1;
+        }
+    }
+    
+    /**
+     * Builds an index without a cache
+     * 
+     * @param symbols Symbol table
+     */
+    public AddressIndex(SymbolTable symbols) {
+        this(symbols, 0);
+    }
+    
+    /**
+     * @return Number of distinct addresses
+     */
+    public int size() {
+        return this.addresses.length;
+    }
+    
+    /**
+     * Gets the name of the given address if it has one, otherwise an empty string
+     * 
+     * @param addr
+     * @return
+     */
+    public String getAddressName(long addr) {
+        int i = floor(addr);
+        
+        return (i >= 0 && this.addresses[i] == addr) ? this.names[i] : "";
+    }
+    
+    /**
+     * Gets the name of the symbol nearest to the given address. Ties go to the lower address.
+     * 
+     * @param addr
+     * @return
+     */
+    public String getNearest(long addr) {
+        int below = floor(addr),
+            above = (below >= 0 && this.addresses[below] == addr) ? below : below + 1;
+        
+        if(above >= this.addresses.length) above = -1;
+        
+        if(above >= 0 && below >= 0) {
+            return ((this.addresses[above] - addr) < (addr - this.addresses[below])) ? this.names[above] : this.names[below];
+        } else if(above >= 0) {
+            return this.names[above];
+        } else if(below >= 0) {
+            return this.names[below];
+        } else {
+            return "";
+        }
+    }
+    
+    /**
+     * Gets the name of the symbol nearest to the given address, whose address is greater than or equal to addr
+     * 
+     * @param addr
+     * @return
+     */
+    public String getNearestAbove(long addr) {
+        int below = floor(addr),
+            above = (below >= 0 && this.addresses[below] == addr) ? below : below + 1;
+        
+        return (above < this.addresses.length) ? this.names[above] : "";
+    }
+    
+    /**
+     * Gets the name of the symbol nearest to the given address, whose address is less than or equal to addr
+     * 
+     * @param addr
+     * @return
+     */
+    public String getNearestBelow(long addr) {
+        int below = floor(addr);
+        
+        return (below >= 0) ? this.names[below] : "";
+    }
+    
+    /**
+     * Finds the index of the greatest address less than or equal to addr
+     * 
+     * @param addr
+     * @return index, or -1 if there is none
+     */
+    private int floor(long addr) {
+        if(this.cachedAddresses != null) {
+            int slot = Long.hashCode(addr * 0x9E3779B97F4A7C15l) & this.cacheMask;
+            
+            // slots are written without locking, so racing threads can leave an address paired with another's
+            // index, and unused slots read as address 0 with index 0. a cached index is only used if it is in
+            // range and still the floor of addr
+            if(this.cachedAddresses[slot] == addr) {
+                int i = this.cachedFloors[slot];
+                
+                if(i < this.addresses.length && (i < 0 || this.addresses[i] <= addr) && (i + 1 >= this.addresses.length || this.addresses[i + 1] > addr)) {
+                    return i;
+                }
+            }
+            
+            int i = search(addr);
+            this.cachedAddresses[slot] = addr;
+            this.cachedFloors[slot] = i;
+            return i;
+        }
+        
+        return search(addr);
+    }
+    
+    /**
+     * Binary searches for the index of the greatest address less than or equal to addr
+     * 
+     * @param addr
+     * @return index, or -1 if there is none
+     */
+    private int search(long addr) {
+        int i = Arrays.binarySearch(this.addresses, addr);
+        
+        return (i >= 0) ? i : (-i - 2);
+    }
+}
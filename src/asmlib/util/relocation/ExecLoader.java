@@ -4,9 +4,22 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import asmlib.util.FileLoader;
+
 /**
  * Loads an executable object set and returns its entry address
  * 
@@ -14,6 +27,16 @@ import java.util.stream.Collectors;
  */
 public class ExecLoader {
     
+    private static Logger LOG = Logger.getLogger(ExecLoader.class.getName());
+    
+    // process-wide settings, which may be changed from any thread. each load takes a snapshot of them
+    private static volatile int LOAD_THREADS = 1,
+                                READ_CONCURRENCY = 0;
+    
+    private static volatile ObjectCache OBJECT_CACHE = null;
+    
+    private record Settings(int loadThreads, int readConcurrency, ObjectCache cache) { }
+    
     /**
      * Loads the contents of a Relocator into an array
      * 
@@ -25,54 +48,388 @@ public class ExecLoader {
      * @return Address of the entry symbol
      */
     public static long loadRelocator(Relocator rel, String entry, byte[] mem, long startInMemory, int startInArray) {
-        byte[] relocatedCode = rel.relocate(startInMemory);
+        rel.relocate(startInMemory, mem, startInArray);
         
-        for(int i = 0; i < relocatedCode.length; i++) {
-            mem[startInArray + i] = relocatedCode[i];
-        }
+        return rel.getReference(entry);
+    }
+    
+    /**
+     * Loads the contents of a Relocator into a buffer, starting at its current position
+     * 
+     * @param rel Relocator
+     * @param entry Entry symbol
+     * @param mem Memory
+     * @param startInMemory Start address as used in relocation
+     * @return Address of the entry symbol
+     */
+    public static long loadRelocator(Relocator rel, String entry, ByteBuffer mem, long startInMemory) {
+        rel.relocate(startInMemory, mem);
         
         return rel.getReference(entry);
     }
     
     /**
-     * Loads the contents of an exec file into a Relocator
+     * Loads an exec file directly into memory, linking at the origin it gives with {@code #org <addr>}. With
+     * {@code #org dyn} or no origin, the image is linked wherever the buffer's position is. Either way the
+     * buffer's position is left just past the image.
+     * 
+     * @param f Exec file
+     * @param mem Memory
+     * @param memoryBase Physical address of index 0 of mem
+     * @return Entry address and symbol table
+     * @throws IOException
+     */
+    public static LoadResult loadExecFile(File f, ByteBuffer mem, long memoryBase) throws IOException {
+        RelocationEvents.ExecLoad event = new RelocationEvents.ExecLoad();
+        event.begin();
+        
+        ExecFile exec = readExecFile(f);
+        Relocator rel = new Relocator();
+        
+        for(RelocatableObject obj : loadObjects(exec.objects())) {
+            rel.add(obj);
+        }
+        
+        if(exec.origin() != null) {
+            long index = exec.origin() - memoryBase;
+            
+            if(index < 0 || index > mem.limit()) {
+                throw new IllegalArgumentException("Origin " + exec.origin() + " is outside of memory");
+            }
+            
+            mem.position((int) index);
+        }
+        
+        long start = memoryBase + mem.position();
+        int size = rel.relocate(start, mem);
+        
+        LoadResult result = new LoadResult(rel.getReference(exec.entry()), rel.getLinkResult());
+        event.finish(f, exec.objects().size(), size, false);
+        
+        return result;
+    }
+    
+    /**
+     * Loads an exec file directly into memory, linking at the origin it gives with {@code #org <addr>}. With
+     * {@code #org dyn} or no origin, the image is linked at the start of the array.
+     * 
+     * @param f Exec file
+     * @param mem Memory
+     * @param memoryBase Physical address of index 0 of mem
+     * @return Entry address and symbol table
+     * @throws IOException
+     */
+    public static LoadResult loadExecFile(File f, byte[] mem, long memoryBase) throws IOException {
+        return loadExecFile(f, ByteBuffer.wrap(mem), memoryBase);
+    }
+    
+    /**
+     * Loads the contents of an exec file into a Relocator. Origins given by the exec file are not applied.
      * 
      * @param f
      * @return Relocator in index 0, entry symbol in index 1
      * @throws IOException
      */
     public static List<Object> loadExecFileToRelocator(File f) throws IOException {
+        ExecFile exec = readExecFile(f);
+        Relocator rel = new Relocator();
+        
+        for(RelocatableObject obj : loadObjects(exec.objects())) {
+            rel.add(obj);
+        }
+        
+        return List.of(rel, exec.entry());
+    }
+    
+    /**
+     * Loads the contents of an "exec" file into an array. The image is linked at startInMemory, and any
+     * {@code #org} in the exec file is ignored.
+     * 
+     * @param f File
+     * @param mem Memory
+     * @param startInMemory Start address as used in relocation
+     * @param startInArray Start index in the given array
+     * @return Entry symbol address
+     * @throws IOException
+     */
+    public static long loadExecFileToArray(File f, byte[] mem, int startInMemory, int startInArray) throws IOException {
+        RelocationEvents.ExecLoad event = new RelocationEvents.ExecLoad();
+        event.begin();
+        
+        List<Object> pair = loadExecFileToRelocator(f);
+        Relocator rel = (Relocator) pair.get(0);
+        long entry = loadRelocator(rel, (String) pair.get(1), mem, startInMemory, startInArray);
+        
+        LinkResult result = rel.getLinkResult();
+        event.finish(f, result.getObjectLocations().size(), result.getSize(), false);
+        
+        return entry;
+    }
+    
+    /**
+     * Loads the contents of an "exec" file into an array, reusing a cached link if the exec file and its
+     * objects have not changed. The whole image is copied, including the zeroed gaps between objects, so the
+     * result is the same as an uncached load. Like the uncached overload, the image is always linked at
+     * startInMemory and any {@code #org} in the exec file is ignored. The cache is best-effort: if a link
+     * can't be stored, the load still succeeds.
+     * 
+     * @param f File
+     * @param mem Memory
+     * @param startInMemory Start address as used in relocation
+     * @param startInArray Start index in the given array
+     * @param cache Link cache
+     * @return Entry symbol address
+     * @throws IOException
+     */
+    public static long loadExecFileToArray(File f, byte[] mem, int startInMemory, int startInArray, LinkCache cache) throws IOException {
+        RelocationEvents.ExecLoad event = new RelocationEvents.ExecLoad();
+        event.begin();
+        
+        ExecFile exec = readExecFile(f);
+        
+        List<File> inputs = new ArrayList<>();
+        inputs.add(f);
+        inputs.addAll(exec.objects());
+        
+        long key = LinkCache.key(inputs, startInMemory);
+        LinkResult result = cache.get(key);
+        boolean cached = result != null;
+        
+        if(!cached) {
+            Relocator rel = new Relocator();
+            
+            for(RelocatableObject obj : loadObjects(exec.objects())) {
+                rel.add(obj);
+            }
+            
+            result = rel.link(startInMemory);
+            
+            try {
+                cache.put(key, result);
+            } catch(IOException e) {
+                LOG.fine("Could not cache link of " + f + ": " + e.getMessage());
+            }
+        }
+        
+        if(result.getSize() > mem.length - startInArray) {
+            throw new IllegalArgumentException("Relocated code size " + result.getSize() + " exceeds the " + (mem.length - startInArray) + " bytes remaining in the destination");
+        }
+        
+        result.getImage().get(0, mem, startInArray, (int) result.getSize());
+        
+        long entry = result.getReference(exec.entry());
+        event.finish(f, exec.objects().size(), result.getSize(), cached);
+        
+        return entry;
+    }
+    
+    /**
+     * Sets how many object files are read at once when loading an exec file. Objects are always added to the
+     * relocator in the order they are listed, so the result does not depend on this.
+     * 
+     * @param n Number of threads. Defaults to 1, reading objects one at a time
+     */
+    public static void setLoadThreads(int n) {
+        if(n < 1) throw new IllegalArgumentException("Thread count must be positive");
+        
+        LOAD_THREADS = n;
+    }
+    
+    /**
+     * Sets how many object files are read at once on virtual threads when loading an exec file. Reads are
+     * issued for every object up front and parsed as they complete, on the load threads if there are more
+     * than one. With the object cache enabled, files that are already cached are not read.
+     * 
+     * @param n Maximum reads in flight. Defaults to 0, reading each file as it is parsed
+     */
+    public static void setReadConcurrency(int n) {
+        if(n < 0) throw new IllegalArgumentException("Read concurrency must not be negative");
+        
+        READ_CONCURRENCY = n;
+    }
+    
+    /**
+     * Sets the size of the process-wide cache of parsed object files. Objects loaded through the cache are
+     * shared between every exec file that lists them and must not be modified.
+     * 
+     * @param bytes Maximum total size of cached object files. Defaults to 0, no cache
+     */
+    public static void setObjectCacheSize(long bytes) {
+        OBJECT_CACHE = (bytes > 0) ? new ObjectCache(bytes) : null;
+    }
+    
+    /**
+     * @return The process-wide object cache, or null if disabled
+     */
+    public static ObjectCache getObjectCache() {
+        return OBJECT_CACHE;
+    }
+    
+    /**
+     * Reads an object file, through the object cache if enabled
+     * 
+     * @param f
+     * @param cache Object cache, or null
+     * @return
+     * @throws IOException
+     */
+    private static RelocatableObject loadObject(File f, ObjectCache cache) throws IOException {
+        return (cache == null) ? new RelocatableObject(f) : cache.load(f.toPath());
+    }
+    
+    /**
+     * Reads object files, in parallel if enabled
+     * 
+     * @param files
+     * @return Objects in the same order as files
+     * @throws IOException
+     */
+    private static List<RelocatableObject> loadObjects(List<File> files) throws IOException {
+        // settings in effect when the load starts, so changes made meanwhile don't apply halfway through
+        Settings settings = new Settings(LOAD_THREADS, READ_CONCURRENCY, OBJECT_CACHE);
+        ObjectCache cache = settings.cache();
+        
+        if(settings.readConcurrency() > 0) return readObjects(files, settings);
+        
+        List<RelocatableObject> objects = new ArrayList<>();
+        int threads = Math.min(settings.loadThreads(), files.size());
+        
+        if(threads <= 1) {
+            for(File f : files) objects.add(loadObject(f, cache));
+            
+            return objects;
+        }
+        
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        
+        try {
+            List<Future<RelocatableObject>> futures = new ArrayList<>();
+            
+            for(File f : files) {
+                futures.add(pool.submit(() -> loadObject(f, cache)));
+            }
+            
+            // in listed order regardless of which finished first
+            for(Future<RelocatableObject> fut : futures) {
+                objects.add(fut.get());
+            }
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException ioe) throw ioe;
+            if(e.getCause() instanceof RuntimeException re) throw re;
+            throw new IOException(e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading objects", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        return objects;
+    }
+    
+    /**
+     * Reads object files on virtual threads and parses them as they arrive
+     * 
+     * @param files
+     * @param settings
+     * @return Objects in the same order as files
+     * @throws IOException
+     */
+    private static List<RelocatableObject> readObjects(List<File> files, Settings settings) throws IOException {
+        List<RelocatableObject> objects = new ArrayList<>();
+        ObjectCache cache = settings.cache();
+        int threads = Math.min(settings.loadThreads(), files.size());
+        ExecutorService parsers = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+        
+        try(FileLoader loader = new FileLoader(settings.readConcurrency())) {
+            List<CompletableFuture<ObjectCache.Lookup>> reads = new ArrayList<>();
+            List<CompletableFuture<RelocatableObject>> parses = new ArrayList<>();
+            
+            for(File f : files) {
+                // the reading threads only do blocking work. with the cache, contents are only read on a miss, and
+                // without it every file is a miss
+                CompletableFuture<ObjectCache.Lookup> read = (cache != null) ? loader.load(f.toPath(), cache::lookup)
+                                                                             : loader.load(f.toPath(), p -> new ObjectCache.Lookup(null, null, Files.readAllBytes(p)));
+                
+                reads.add(read);
+                if(parsers != null) parses.add(read.thenApplyAsync(l -> parse(l, cache), parsers));
+            }
+            
+            // in listed order, parsing here if nothing else does
+            if(parsers == null) {
+                for(CompletableFuture<ObjectCache.Lookup> read : reads) objects.add(parse(read.join(), cache));
+            } else {
+                for(CompletableFuture<RelocatableObject> parse : parses) objects.add(parse.join());
+            }
+        } catch(CompletionException e) {
+            if(e.getCause() instanceof IOException ioe) throw ioe;
+            if(e.getCause() instanceof RuntimeException re) throw re;
+            throw new IOException(e.getCause());
+        } finally {
+            if(parsers != null) parsers.shutdownNow();
+        }
+        
+        return objects;
+    }
+    
+    /**
+     * Parses a read object file, through the object cache if enabled
+     * 
+     * @param lookup
+     * @param cache
+     * @return
+     */
+    private static RelocatableObject parse(ObjectCache.Lookup lookup, ObjectCache cache) {
+        return (cache == null) ? new RelocatableObject(lookup.contents(), true) : cache.parse(lookup);
+    }
+    
+    /**
+     * The contents of an exec file
+     * 
+     * @param entry Entry symbol
+     * @param origin Fixed link address, or null if dynamic
+     * @param objects Object files, in listed order
+     */
+    private record ExecFile(String entry, Long origin, List<File> objects) { }
+    
+    /**
+     * Reads an exec file
+     * 
+     * @param f
+     * @return
+     * @throws IOException
+     */
+    private static ExecFile readExecFile(File f) throws IOException {
         List<String> lines;
         
         try(BufferedReader br = new BufferedReader(new FileReader(f))) {
             lines = br.lines().collect(Collectors.toList());
         }
         
-        String entryName = "",
-               directory = f.getAbsoluteFile().getParent() + "\\";
-        Relocator rel = new Relocator();
+        Long origin = null;
+        String entryName = "";
+        Path directory = f.toPath().toAbsolutePath().getParent();
+        List<File> objects = new ArrayList<>();
         
         for(String s : lines) {
-            if(s.startsWith("#entry")) {
+            if(s.isBlank()) {
+                continue;
+            } else if(s.startsWith("#entry")) {
                 entryName = s.split(" ")[1];
             } else if(s.startsWith("#org")) {
-                String origin = s.split(" ")[1];
+                String org = s.split(" ")[1];
                 
-                // i dont remember what this is for lmao
-                if(origin.equals("dyn")) {
-                    
+                // the link base, either fixed or wherever the loader puts it
+                if(org.equals("dyn")) {
+                    origin = null;
+                } else if(org.startsWith("0x")) {
+                    origin = Long.parseLong(org.substring(2), 16);
                 } else {
-                    long org = Long.parseLong(origin);
-                    
+                    origin = Long.parseLong(org);
                 }
             } else {
-                File f2 = new File(s);
-                
-                if(!f2.isAbsolute()) {
-                    f2 = new File(directory + s);
-                }
-                
-                rel.add(new RelocatableObject(f2));
+                // relative to the exec file
+                objects.add(directory.resolve(s.trim()).toFile());
             }
         }
         
@@ -80,22 +437,6 @@ public class ExecLoader {
             throw new IllegalArgumentException("missing entry symbol");
         }
         
-        return List.of(rel, entryName);
-    }
-    
-    /**
-     * Loads the contents of an "exec" file into an array
-     * 
-     * @param f File
-     * @param mem Memory
-     * @param startInMemory Start address as used in relocation
-     * @param startInArray Start index in the given array
-     * @return Entry symbol address
-     * @throws IOException
-     */
-    public static long loadExecFileToArray(File f, byte[] mem, int startInMemory, int startInArray) throws IOException {
-        List<Object> pair = loadExecFileToRelocator(f);
-        
-        return loadRelocator((Relocator) pair.get(0), (String) pair.get(1), mem, startInMemory, startInArray);
+        return new ExecFile(entryName, origin, objects);
     }
 }
@@ -0,0 +1,18 @@
+package asmlib.util.relocation;
+
+/**
+ * A contiguous piece of a relocated image
+ * 
+ * @param address Physical address of the first byte
+ * @param data Relocated code
+ * @author Mechafinch
+ */
+public record ImageSegment(long address, byte[] data) {
+    
+    /**
+     * @return Physical address just past the last byte
+     */
+    public long end() {
+        return this.address + this.data.length;
+    }
+}
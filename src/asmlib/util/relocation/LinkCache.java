@@ -0,0 +1,226 @@
+package asmlib.util.relocation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+/**
+ * An on-disk cache of linked images. Each entry holds a relocated image along with its symbol table and
+ * object locations, and is keyed by a hash of everything that went into the link.
+ * <p>
+ * Entries are stored one per file. The header comes first and the image last, aligned to 8 bytes, so that
+ * a cached image is used straight from a memory-mapped file without being copied.
+ * </p>
+ * 
+ * @author Mechafinch
+ */
+public class LinkCache {
+    
+    private static Logger LOG = Logger.getLogger(LinkCache.class.getName());
+    
+    private static final int MAGIC = 0x4C4E4B43, // LNKC
+                             VERSION = 1;
+    
+    private static final long FNV_OFFSET = 0xCBF29CE484222325l,
+                              FNV_PRIME = 0x100000001B3l;
+    
+    private File directory;
+    
+    /**
+     * Creates a cache in the given directory, creating the directory if needed
+     * 
+     * @param directory
+     * @throws IOException
+     */
+    public LinkCache(File directory) throws IOException {
+        this.directory = directory;
+        
+        Files.createDirectories(directory.toPath());
+    }
+    
+    /**
+     * Computes the key of a link from the files that go into it and its start address
+     * 
+     * @param files Files read by the link, in order
+     * @param startPosition Physical start address
+     * @return
+     * @throws IOException
+     */
+    public static long key(Iterable<File> files, long startPosition) throws IOException {
+        long h = FNV_OFFSET;
+        
+        // FNV-1a over the contents of each file, separated by their lengths
+        for(File f : files) {
+            byte[] data = Files.readAllBytes(f.toPath());
+            
+            for(byte b : data) {
+                h ^= b & 0xFF;
+                h *= FNV_PRIME;
+            }
+            
+            h = (h ^ data.length) * FNV_PRIME;
+        }
+        
+        return (h ^ startPosition) * FNV_PRIME;
+    }
+    
+    /**
+     * Gets a cached link. The image of the result is mapped from the cache file.
+     * 
+     * @param key
+     * @return The cached result, or null if there is no valid entry for the key
+     */
+    public LinkResult get(long key) {
+        File f = entryFile(key);
+        
+        if(!f.isFile()) return null;
+        
+        try(FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            
+            if(buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.getLong() != key) {
+                LOG.fine("Ignoring invalid link cache entry " + f);
+                return null;
+            }
+            
+            long startPosition = buf.getLong(),
+                 size = buf.getLong();
+            int imageOffset = buf.getInt();
+            
+            // objects, in symbol table order
+            String[] objectNames = new String[buf.getInt()];
+            HashMap<String, Long> locations = new HashMap<>();
+            
+            for(int i = 0; i < objectNames.length; i++) {
+                objectNames[i] = getString(buf);
+                locations.put(objectNames[i], buf.getLong());
+            }
+            
+            // symbols, in ID order so they intern to the same IDs
+            int symbolCount = buf.getInt();
+            SymbolTable symbols = new SymbolTable(objectNames, symbolCount);
+            
+            for(int i = 0; i < symbolCount; i++) {
+                int id = symbols.intern(buf.getInt(), getString(buf));
+                boolean defined = buf.get() != 0;
+                long address = buf.getLong();
+                
+                if(defined) symbols.define(id, address);
+            }
+            
+            ByteBuffer image = buf.slice(imageOffset, (int) size);
+            
+            LOG.fine("Loaded cached link " + Long.toHexString(key));
+            
+            return new LinkResult(startPosition, size, image, locations, symbols, 0);
+        } catch(IOException | RuntimeException e) {
+            LOG.fine("Could not read link cache entry " + f + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Stores a link. The entry is written to a temporary file and moved into place, so concurrent readers
+     * never see a partial entry.
+     * 
+     * @param key
+     * @param result Result to store, which must include its image
+     * @throws IOException
+     */
+    public void put(long key, LinkResult result) throws IOException {
+        ByteBuffer image = result.getImage();
+        
+        if(image == null) throw new IllegalArgumentException("Link result has no image");
+        
+        SymbolTable symbols = result.getSymbolTable();
+        String[] objectNames = symbols.objectNames();
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        
+        for(int i = 0; i < objectNames.length; i++) {
+            putString(header, objectNames[i]);
+            header.writeLong(result.getObjectLocation(objectNames[i]));
+        }
+        
+        header.writeInt(symbols.size());
+        
+        for(int id = 0; id < symbols.size(); id++) {
+            header.writeInt(symbols.owner(id));
+            putString(header, symbols.localName(id));
+            header.writeByte(symbols.isDefined(id) ? 1 : 0);
+            header.writeLong(symbols.address(id));
+        }
+        
+        // fixed fields, then the variable part, then the aligned image
+        int fixedSize = 4 + 4 + 8 + 8 + 8 + 4 + 4,
+            imageOffset = (fixedSize + bytes.size() + 7) & ~7;
+        
+        ByteBuffer start = ByteBuffer.allocate(imageOffset);
+        start.putInt(MAGIC)
+             .putInt(VERSION)
+             .putLong(key)
+             .putLong(result.getStartPosition())
+             .putLong(result.getSize())
+             .putInt(imageOffset)
+             .putInt(objectNames.length)
+             .put(bytes.toByteArray())
+             .rewind();
+        
+        File f = entryFile(key),
+             tmp = File.createTempFile(f.getName(), ".tmp", this.directory);
+        
+        try(FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            while(start.hasRemaining()) fc.write(start);
+            while(image.hasRemaining()) fc.write(image);
+        }
+        
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        
+        LOG.fine("Cached link " + Long.toHexString(key) + ", " + (imageOffset + result.getSize()) + " bytes");
+    }
+    
+    /**
+     * @param key
+     * @return File holding the entry for key
+     */
+    private File entryFile(long key) {
+        return new File(this.directory, String.format("%016X.lnk", key));
+    }
+    
+    /**
+     * Writes a length-prefixed UTF-8 string
+     * 
+     * @param out
+     * @param s
+     * @throws IOException
+     */
+    private static void putString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        
+        out.writeInt(b.length);
+        out.write(b);
+    }
+    
+    /**
+     * Reads a length-prefixed UTF-8 string
+     * 
+     * @param buf
+     * @return
+     */
+    private static String getString(ByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
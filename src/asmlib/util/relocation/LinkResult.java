@@ -0,0 +1,167 @@
+package asmlib.util.relocation;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * A read-only snapshot of a link: where each object was placed, the symbol table, and optionally the image.
+ * Nothing in a result changes after it is created, so it can be shared between threads and queried
+ * concurrently without locking.
+ * 
+ * @author Mechafinch
+ */
+public final class LinkResult {
+    
+    private final long startPosition,
+                       size;
+    
+    private final ByteBuffer image;
+    
+    private final Map<String, Long> objectLocations;
+    
+    private final SymbolTable symbols;
+    
+    private final int addressCacheSize;
+    
+    // built on first use. racing builds produce equivalent indices, so the race is harmless
+    private volatile AddressIndex addressIndex;
+    
+    /**
+     * Creates a result. The symbol table must not be modified afterwards.
+     * 
+     * @param startPosition Physical start address
+     * @param size Size of the image in bytes
+     * @param image Image, or null if it was not kept
+     * @param objectLocations Physical address of each object by name
+     * @param symbols Symbol table
+     * @param addressCacheSize Number of address index cache entries
+     */
+    LinkResult(long startPosition, long size, ByteBuffer image, Map<String, Long> objectLocations, SymbolTable symbols, int addressCacheSize) {
+        this.startPosition = startPosition;
+        this.size = size;
+        this.image = (image == null) ? null : image.asReadOnlyBuffer();
+        this.objectLocations = Map.copyOf(objectLocations);
+        this.symbols = symbols;
+        this.addressCacheSize = addressCacheSize;
+    }
+    
+    /**
+     * @return Physical start address
+     */
+    public long getStartPosition() { return this.startPosition; }
+    
+    /**
+     * @return Size of the image in bytes, from the start position to the end of the last object
+     */
+    public long getSize() { return this.size; }
+    
+    /**
+     * Gets a read-only view of the image. Each call returns a new view, so readers do not share a position.
+     * 
+     * @return The image, index 0 corresponding to the start position, or null if the image was written
+     * somewhere the result cannot see
+     */
+    public ByteBuffer getImage() {
+        return (this.image == null) ? null : this.image.duplicate();
+    }
+    
+    /**
+     * @return Physical address of each object by name
+     */
+    public Map<String, Long> getObjectLocations() {
+        return this.objectLocations;
+    }
+    
+    /**
+     * Gets the physical address of an object
+     * 
+     * @param name
+     * @return
+     */
+    public long getObjectLocation(String name) {
+        Long l = this.objectLocations.get(name);
+        
+        if(l == null) throw new IllegalArgumentException("Object not found: " + name);
+        
+        return l;
+    }
+    
+    /**
+     * @return The symbol table
+     */
+    public SymbolTable getSymbolTable() {
+        return this.symbols;
+    }
+    
+    /**
+     * Gets the address of a symbol
+     * 
+     * @param name Full name, {@code object.symbol}
+     * @return
+     */
+    public long getReference(String name) {
+        int id = this.symbols.find(name);
+        
+        if(id < 0 || !this.symbols.isDefined(id)) {
+            throw new IllegalArgumentException("Reference not found: " + name);
+        }
+        
+        return this.symbols.address(id);
+    }
+    
+    /**
+     * Gets the index used to answer address queries, building it if needed
+     * 
+     * @return
+     */
+    public AddressIndex getAddressIndex() {
+        AddressIndex index = this.addressIndex;
+        
+        if(index == null) {
+            index = new AddressIndex(this.symbols, this.addressCacheSize);
+            this.addressIndex = index;
+        }
+        
+        return index;
+    }
+    
+    /**
+     * Gets the name of the given address if it has one, otherwise an empty string
+     * 
+     * @param addr
+     * @return
+     */
+    public String getAddressName(long addr) {
+        return getAddressIndex().getAddressName(addr);
+    }
+    
+    /**
+     * Gets the name of the symbol nearest to the given address
+     * 
+     * @param addr
+     * @return
+     */
+    public String getNearest(long addr) {
+        return getAddressIndex().getNearest(addr);
+    }
+    
+    /**
+     * Gets the name of the symbol nearest to the given address, whose address is greater than or equal to addr
+     * 
+     * @param addr
+     * @return
+     */
+    public String getNearestAbove(long addr) {
+        return getAddressIndex().getNearestAbove(addr);
+    }
+    
+    /**
+     * Gets the name of the symbol nearest to the given address, whose address is less than or equal to addr
+     * 
+     * @param addr
+     * @return
+     */
+    public String getNearestBelow(long addr) {
+        return getAddressIndex().getNearestBelow(addr);
+    }
+}
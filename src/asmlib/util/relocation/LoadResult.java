@@ -0,0 +1,25 @@
+package asmlib.util.relocation;
+
+/**
+ * The result of loading an exec file into memory
+ * 
+ * @param entryAddress Physical address of the entry symbol
+ * @param link Snapshot of the link, without its image
+ * @author Mechafinch
+ */
+public record LoadResult(long entryAddress, LinkResult link) {
+    
+    /**
+     * @return Physical address the image was linked at
+     */
+    public long origin() {
+        return this.link.getStartPosition();
+    }
+    
+    /**
+     * @return The symbol table of the link
+     */
+    public SymbolTable symbols() {
+        return this.link.getSymbolTable();
+    }
+}
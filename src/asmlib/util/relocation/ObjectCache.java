@@ -0,0 +1,155 @@
+package asmlib.util.relocation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+/**
+ * A size-bounded cache of parsed object files, so that objects shared by many links are only parsed once.
+ * Entries are keyed by the file's real path along with its modification time and size, so a changed file
+ * is parsed again. The least recently used entries are dropped once the total size of the cached files
+ * exceeds the capacity.
+ * <p>
+ * The cache is safe to use from multiple threads. Cached objects are shared between everyone that loads
+ * them and must not be modified.
+ * </p>
+ * 
+ * @author Mechafinch
+ */
+public class ObjectCache {
+    
+    private static Logger LOG = Logger.getLogger(ObjectCache.class.getName());
+    
+    record Key(Path path, long modified, long size) { }
+    
+    /**
+     * A file looked up in the cache, with either its cached object or its contents to parse
+     * 
+     * @param key
+     * @param object Cached object, or null on a miss
+     * @param contents Contents of the file on a miss, otherwise null
+     */
+    record Lookup(Key key, RelocatableObject object, byte[] contents) { }
+    
+    private long capacity,
+                 usedBytes;
+    
+    // access order, least recently used first
+    private LinkedHashMap<Key, RelocatableObject> entries;
+    
+    // current key of each path, so older versions are dropped when a file changes
+    private HashMap<Path, Key> keys;
+    
+    /**
+     * Creates an empty cache
+     * 
+     * @param capacity Maximum total size of cached files, in bytes
+     */
+    public ObjectCache(long capacity) {
+        this.capacity = capacity;
+        this.usedBytes = 0;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.keys = new HashMap<>();
+    }
+    
+    /**
+     * Gets the parsed object for a file, parsing it if it isn't cached or has changed
+     * 
+     * @param p Object file
+     * @return
+     * @throws IOException
+     */
+    public RelocatableObject load(Path p) throws IOException {
+        return parse(lookup(p));
+    }
+    
+    /**
+     * Looks up a file, reading its contents if it isn't cached or has changed. Only does blocking work, so
+     * it can run on a virtual thread while parsing happens elsewhere.
+     * 
+     * @param p Object file
+     * @return
+     * @throws IOException
+     */
+    Lookup lookup(Path p) throws IOException {
+        Path real = p.toRealPath();
+        BasicFileAttributes attr = Files.readAttributes(real, BasicFileAttributes.class);
+        Key key = new Key(real, attr.lastModifiedTime().toMillis(), attr.size());
+        
+        synchronized(this) {
+            RelocatableObject obj = this.entries.get(key);
+            if(obj != null) return new Lookup(key, obj, null);
+        }
+        
+        return new Lookup(key, null, Files.readAllBytes(real));
+    }
+    
+    /**
+     * Gets the object of a lookup, parsing and caching it on a miss
+     * 
+     * @param lookup
+     * @return
+     */
+    RelocatableObject parse(Lookup lookup) {
+        if(lookup.object() != null) return lookup.object();
+        
+        Key key = lookup.key();
+        
+        // parse outside the lock. threads loading the same file at once may both parse it, which is harmless
+        LOG.finer("Parsing " + key.path());
+        RelocatableObject obj = new RelocatableObject(lookup.contents(), true);
+        
+        synchronized(this) {
+            Key old = this.keys.put(key.path(), key);
+            
+            if(old != null && this.entries.remove(old) != null) {
+                this.usedBytes -= old.size();
+            }
+            
+            this.entries.put(key, obj);
+            this.usedBytes += key.size();
+            
+            // drop least recently used, keeping at least the new entry
+            Iterator<Entry<Key, RelocatableObject>> iter = this.entries.entrySet().iterator();
+            
+            while(this.usedBytes > this.capacity && this.entries.size() > 1) {
+                Key k = iter.next().getKey();
+                
+                iter.remove();
+                this.keys.remove(k.path(), k);
+                this.usedBytes -= k.size();
+            }
+        }
+        
+        return obj;
+    }
+    
+    /**
+     * Removes every entry
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.keys.clear();
+        this.usedBytes = 0;
+    }
+    
+    /**
+     * @return Total size of the cached files, in bytes
+     */
+    public synchronized long getUsedBytes() {
+        return this.usedBytes;
+    }
+    
+    /**
+     * @return Number of cached objects
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+}
@@ -0,0 +1,356 @@
+package asmlib.util.relocation;
+
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Tracks free space while placing objects. Free space is kept as a set of disjoint blocks, indexed both by
+ * address and by size, so reservations and allocations take logarithmic time. The address index also tracks
+ * the largest block under each node, so first fit finds the lowest block that is large enough without
+ * walking the ones before it. Blocks that are large enough but can't hold the object once its start is
+ * aligned are skipped one at a time, which only happens for blocks within an alignment of the object's size.
+ * 
+ * @author Mechafinch
+ */
+public class PlacementAllocator {
+    
+    /**
+     * How free blocks are chosen for dynamically placed objects
+     */
+    public enum Policy {
+        /** Smallest free block the object fits in */
+        BEST_FIT,
+        
+        /** Lowest addressed free block the object fits in */
+        FIRST_FIT
+    }
+    
+    // a free block, end exclusive
+    private record Block(long start, long end) {
+        long size() { return this.end - this.start; }
+    }
+    
+    private Policy policy;
+    
+    private long base,
+                 alignment,
+                 usedBytes,
+                 highWater;
+    
+    private BlockTree freeByAddress;
+    
+    private TreeSet<Block> freeBySize;
+    
+    /**
+     * Creates an allocator over the offsets 0 and up
+     * 
+     * @param policy Placement policy for dynamic objects
+     * @param base Physical address of offset 0, used for alignment
+     * @param alignment Alignment of dynamically placed objects, in bytes
+     */
+    public PlacementAllocator(Policy policy, long base, long alignment) {
+        if(alignment < 1) throw new IllegalArgumentException("Alignment must be positive");
+        
+        this.policy = policy;
+        this.base = base;
+        this.alignment = alignment;
+        this.usedBytes = 0;
+        this.highWater = 0;
+        
+        this.freeByAddress = new BlockTree();
+        this.freeBySize = new TreeSet<>(Comparator.comparingLong(Block::size).thenComparingLong(Block::start));
+        
+        addFree(0, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Reserves a fixed range
+     * 
+     * @param offset Start offset
+     * @param size Size in bytes
+     */
+    public void reserve(long offset, long size) {
+        if(offset < 0) throw new IllegalArgumentException("Fixed location " + (offset + this.base) + " is before the start position");
+        
+        if(size == 0) return;
+        
+        Block b = this.freeByAddress.floor(offset);
+        
+        if(b == null || b.end() < offset + size) {
+            throw new IllegalArgumentException("Objects with fixed origins must not overlap");
+        }
+        
+        take(b, offset, size);
+    }
+    
+    /**
+     * Allocates a range according to the policy and alignment
+     * 
+     * @param size Size in bytes
+     * @return Start offset
+     */
+    public long allocate(long size) {
+        if(this.policy == Policy.BEST_FIT) {
+            // candidates are ordered by size, so the first that fits after alignment is the best
+            for(Block b : this.freeBySize.tailSet(new Block(0, size), true)) {
+                long start = align(b.start());
+                
+                if(start + size <= b.end()) {
+                    take(b, start, size);
+                    return start;
+                }
+            }
+        } else {
+            // lowest block large enough, moving past any the object doesn't fit in after alignment
+            for(Block b = this.freeByAddress.first(size, 0); b != null; b = this.freeByAddress.first(size, b.start() + 1)) {
+                long start = align(b.start());
+                
+                if(start + size <= b.end()) {
+                    take(b, start, size);
+                    return start;
+                }
+            }
+        }
+        
+        // unreachable as the last block is unbounded
+        throw new IllegalStateException("Could not place object of " + size + " bytes");
+    }
+    
+    /**
+     * @return End of the highest allocated range
+     */
+    public long getHighWater() { return this.highWater; }
+    
+    /**
+     * @return Total bytes allocated or reserved
+     */
+    public long getUsedBytes() { return this.usedBytes; }
+    
+    /**
+     * @return Unused bytes between offset 0 and the high water mark
+     */
+    public long getGapBytes() { return this.highWater - this.usedBytes; }
+    
+    /**
+     * Rounds an offset up so that its physical address is aligned
+     * 
+     * @param offset
+     * @return
+     */
+    private long align(long offset) {
+        long rem = Math.floorMod(offset + this.base, this.alignment);
+        return (rem == 0) ? offset : offset + (this.alignment - rem);
+    }
+    
+    /**
+     * Removes a range from a free block, returning whatever is left on either side
+     * 
+     * @param b
+     * @param start
+     * @param size
+     */
+    private void take(Block b, long start, long size) {
+        removeFree(b);
+        
+        if(start > b.start()) addFree(b.start(), start);
+        if(start + size < b.end()) addFree(start + size, b.end());
+        
+        this.usedBytes += size;
+        if(start + size > this.highWater) this.highWater = start + size;
+    }
+    
+    /**
+     * Adds a free block
+     * 
+     * @param start
+     * @param end
+     */
+    private void addFree(long start, long end) {
+        Block b = new Block(start, end);
+        this.freeByAddress.add(b);
+        this.freeBySize.add(b);
+    }
+    
+    /**
+     * Removes a free block
+     * 
+     * @param b
+     */
+    private void removeFree(Block b) {
+        this.freeByAddress.remove(b.start());
+        this.freeBySize.remove(b);
+    }
+    
+    /**
+     * Free blocks by address, as a treap where each node tracks the size of the largest block in its subtree
+     */
+    private static class BlockTree {
+        
+        private static class Node {
+            Block block;
+            
+            int priority;
+            
+            long maxSize;
+            
+            Node left,
+                 right;
+            
+            Node(Block block, int priority) {
+                this.block = block;
+                this.priority = priority;
+                this.maxSize = block.size();
+            }
+        }
+        
+        private Node root;
+        
+        // xorshift state for node priorities. a fixed seed keeps placement deterministic
+        private int seed = 0x2545F491;
+        
+        /**
+         * Adds a block
+         * 
+         * @param b
+         */
+        void add(Block b) {
+            this.seed ^= this.seed << 13;
+            this.seed ^= this.seed >>> 17;
+            this.seed ^= this.seed << 5;
+            
+            this.root = insert(this.root, new Node(b, this.seed));
+        }
+        
+        /**
+         * Removes the block starting at the given offset
+         * 
+         * @param start
+         */
+        void remove(long start) {
+            this.root = remove(this.root, start);
+        }
+        
+        /**
+         * Finds the block with the greatest start less than or equal to offset
+         * 
+         * @param offset
+         * @return The block, or null if there is none
+         */
+        Block floor(long offset) {
+            Block found = null;
+            
+            for(Node n = this.root; n != null;) {
+                if(n.block.start() <= offset) {
+                    found = n.block;
+                    n = n.right;
+                } else {
+                    n = n.left;
+                }
+            }
+            
+            return found;
+        }
+        
+        /**
+         * Finds the lowest addressed block of at least the given size
+         * 
+         * @param size Minimum size
+         * @param from Minimum start
+         * @return The block, or null if there is none
+         */
+        Block first(long size, long from) {
+            return first(this.root, size, from);
+        }
+        
+        private static Block first(Node n, long size, long from) {
+            // subtrees without a large enough block are skipped whole
+            if(n == null || n.maxSize < size) return null;
+            
+            if(n.block.start() >= from) {
+                Block b = first(n.left, size, from);
+                if(b != null) return b;
+                
+                if(n.block.size() >= size) return n.block;
+            }
+            
+            return first(n.right, size, from);
+        }
+        
+        private static Node insert(Node n, Node x) {
+            if(n == null) return x;
+            
+            if(x.block.start() < n.block.start()) {
+                n.left = insert(n.left, x);
+                if(n.left.priority > n.priority) return rotateRight(n);
+            } else {
+                n.right = insert(n.right, x);
+                if(n.right.priority > n.priority) return rotateLeft(n);
+            }
+            
+            update(n);
+            return n;
+        }
+        
+        private static Node remove(Node n, long start) {
+            if(n == null) return null;
+            
+            if(start < n.block.start()) {
+                n.left = remove(n.left, start);
+            } else if(start > n.block.start()) {
+                n.right = remove(n.right, start);
+            } else {
+                return merge(n.left, n.right);
+            }
+            
+            update(n);
+            return n;
+        }
+        
+        // every block in a is before every block in b
+        private static Node merge(Node a, Node b) {
+            if(a == null) return b;
+            if(b == null) return a;
+            
+            if(a.priority > b.priority) {
+                a.right = merge(a.right, b);
+                update(a);
+                return a;
+            } else {
+                b.left = merge(a, b.left);
+                update(b);
+                return b;
+            }
+        }
+        
+        private static Node rotateRight(Node n) {
+            Node l = n.left;
+            
+            n.left = l.right;
+            update(n);
+            
+            l.right = n;
+            update(l);
+            return l;
+        }
+        
+        private static Node rotateLeft(Node n) {
+            Node r = n.right;
+            
+            n.right = r.left;
+            update(n);
+            
+            r.left = n;
+            update(r);
+            return r;
+        }
+        
+        private static void update(Node n) {
+            long max = n.block.size();
+            
+            if(n.left != null && n.left.maxSize > max) max = n.left.maxSize;
+            if(n.right != null && n.right.maxSize > max) max = n.right.maxSize;
+            
+            n.maxSize = max;
+        }
+    }
+}
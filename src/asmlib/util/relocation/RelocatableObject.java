@@ -6,12 +6,16 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import asmlib.util.metrics.Metrics;
+import asmlib.util.metrics.StageTimer;
+
 /**
  * The contents of a Relocatable Object File as a class
  * 
@@ -79,7 +83,17 @@ public class RelocatableObject {
      * @param bytes
      */
     public RelocatableObject(byte[] bytes) {
-        this.loadedFromFile = false;
+        this(bytes, false);
+    }
+    
+    /**
+     * Reads the contents of a byte array into this object
+     * 
+     * @param bytes
+     * @param loadedFromFile true if the bytes are the contents of a file, read ahead of time
+     */
+    public RelocatableObject(byte[] bytes, boolean loadedFromFile) {
+        this.loadedFromFile = loadedFromFile;
         
         read(bytes);
     }
@@ -109,6 +123,9 @@ public class RelocatableObject {
      */
     public void read(byte[] contents) {
         LOG.fine("Reading contents (" + contents.length + " bytes)");
+        StageTimer timer = Metrics.begin(Metrics.Stage.OBJECT_READ);
+        RelocationEvents.ObjectRead event = new RelocationEvents.ObjectRead();
+        event.begin();
         
         Logger logp = LOG;
         if(LOG.getLevel() == null) while((logp = logp.getParent()).getLevel() == null);
@@ -268,11 +285,7 @@ public class RelocatableObject {
         }
         
         // object code
-        this.objectCode = new byte[this.objectCodeSize];
-        
-        for(int i = 0; i < this.objectCodeSize; i++) {
-            this.objectCode[i] = contents[fileIndex++];
-        }
+        this.objectCode = Arrays.copyOfRange(contents, fileIndex, fileIndex + this.objectCodeSize);
         
         if(logFinest) {
             LOG.finest("Object Code:");
@@ -288,6 +301,10 @@ public class RelocatableObject {
             }
         }
         
+        timer.end();
+        event.finish(this, contents.length);
+        Metrics.count(Metrics.Counter.BYTES_READ, contents.length);
+        
         LOG.fine("Read successfully (" + this.objectCodeSize + " code bytes)");
     }
     
@@ -338,6 +355,9 @@ public class RelocatableObject {
     public byte[] asObjectFile() {
         LOG.fine("Converting " + this.name + " to writable object file (" + this.objectCodeSize + " code bytes)");
         LOG.finer("Calculating file size");
+        StageTimer timer = Metrics.begin(Metrics.Stage.OBJECT_WRITE);
+        RelocationEvents.ObjectWrite event = new RelocationEvents.ObjectWrite();
+        event.begin();
         
         Logger logp = LOG;
         if(LOG.getLevel() == null) while((logp = logp.getParent()).getLevel() == null);
@@ -495,6 +515,10 @@ public class RelocatableObject {
         
         if(logFiner) LOG.finer(String.format("Allocated %s bytes. Wrote %s bytes.", buffer.capacity(), buffer.position()));
         
+        timer.end();
+        event.finish(this, buffer.position(), incomingTableCount + outgoingTableCount);
+        Metrics.count(Metrics.Counter.BYTES_WRITTEN, buffer.position());
+        
         return buffer.array();
     }
     
@@ -557,6 +581,30 @@ public class RelocatableObject {
         return s;
     }
     
+    /**
+     * Computes a hash of this object's contents, used to detect changes between links
+     * 
+     * @return 64-bit content hash
+     */
+    public long contentHash() {
+        // FNV-1a over the code
+        long h = 0xCBF29CE484222325l;
+        
+        for(int i = 0; i < this.objectCodeSize; i++) {
+            h ^= this.objectCode[i] & 0xFF;
+            h *= 0x100000001B3l;
+        }
+        
+        h = (h * 31) + this.name.hashCode();
+        h = (h * 31) + this.objectEndianness.ordinal();
+        h = (h * 31) + this.incomingReferences.hashCode();
+        h = (h * 31) + this.incomingReferenceWidths.hashCode();
+        h = (h * 31) + this.outgoingReferences.hashCode();
+        h = (h * 31) + this.outgoingReferenceWidths.hashCode();
+        
+        return h;
+    }
+    
     /**
      * @return The object's name
      */
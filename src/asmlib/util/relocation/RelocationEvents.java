@@ -0,0 +1,170 @@
+package asmlib.util.relocation;
+
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for object files, relocation, and loading. Each is created and begun
+ * unconditionally, and only filled in once {@link Event#shouldCommit()} says a recording wants it, so they
+ * cost next to nothing when not recorded.
+ * 
+ * @author Mechafinch
+ */
+final class RelocationEvents {
+    
+    private RelocationEvents() { }
+    
+    @Name("asmlib.ObjectRead")
+    @Label("Object File Read")
+    @Category({ "AssemblerLib", "Relocation" })
+    static class ObjectRead extends Event {
+        @Label("Object")
+        String name;
+        
+        @Label("Size")
+        @DataAmount
+        int bytes;
+        
+        @Label("Tables")
+        int tables;
+        
+        @Label("Incoming References")
+        int incoming;
+        
+        @Label("Outgoing References")
+        int outgoing;
+        
+        /**
+         * Ends the event and commits it if recorded
+         * 
+         * @param obj
+         * @param bytes Size of the object file
+         */
+        void finish(RelocatableObject obj, int bytes) {
+            end();
+            
+            if(shouldCommit()) {
+                this.name = obj.name;
+                this.bytes = bytes;
+                this.tables = obj.tableCount;
+                this.incoming = obj.incomingReferences.size();
+                this.outgoing = obj.outgoingReferences.size();
+                commit();
+            }
+        }
+    }
+    
+    @Name("asmlib.ObjectWrite")
+    @Label("Object File Write")
+    @Category({ "AssemblerLib", "Relocation" })
+    static class ObjectWrite extends Event {
+        @Label("Object")
+        String name;
+        
+        @Label("Size")
+        @DataAmount
+        int bytes;
+        
+        @Label("Tables")
+        int tables;
+        
+        @Label("Incoming References")
+        int incoming;
+        
+        @Label("Outgoing References")
+        int outgoing;
+        
+        /**
+         * Ends the event and commits it if recorded
+         * 
+         * @param obj
+         * @param bytes Size of the object file
+         * @param tables Number of tables written
+         */
+        void finish(RelocatableObject obj, int bytes, int tables) {
+            end();
+            
+            if(shouldCommit()) {
+                this.name = obj.name;
+                this.bytes = bytes;
+                this.tables = tables;
+                this.incoming = obj.incomingReferences.size();
+                this.outgoing = obj.outgoingReferences.size();
+                commit();
+            }
+        }
+    }
+    
+    @Name("asmlib.RelocationPhase")
+    @Label("Relocation Phase")
+    @Description("Placement, outgoing resolution, copy, or patching. Parallel relocation copies and patches together")
+    @Category({ "AssemblerLib", "Relocation" })
+    static class RelocationPhase extends Event {
+        @Label("Phase")
+        String phase;
+        
+        @Label("Objects")
+        int objects;
+        
+        /**
+         * Ends the event and commits it if recorded
+         * 
+         * @param phase
+         * @param objects Number of objects handled
+         */
+        void finish(String phase, int objects) {
+            end();
+            
+            if(shouldCommit()) {
+                this.phase = phase;
+                this.objects = objects;
+                commit();
+            }
+        }
+    }
+    
+    @Name("asmlib.ExecLoad")
+    @Label("Exec File Load")
+    @Category({ "AssemblerLib", "Relocation" })
+    static class ExecLoad extends Event {
+        @Label("Exec File")
+        String path;
+        
+        @Label("Objects")
+        int objects;
+        
+        @Label("Image Size")
+        @DataAmount
+        long size;
+        
+        @Label("Cached")
+        @Description("Whether the link came from a link cache")
+        boolean cached;
+        
+        /**
+         * Ends the event and commits it if recorded
+         * 
+         * @param f Exec file
+         * @param objects Number of objects listed
+         * @param size Size of the loaded image
+         * @param cached
+         */
+        void finish(File f, int objects, long size, boolean cached) {
+            end();
+            
+            if(shouldCommit()) {
+                this.path = f.getPath();
+                this.objects = objects;
+                this.size = size;
+                this.cached = cached;
+                commit();
+            }
+        }
+    }
+}
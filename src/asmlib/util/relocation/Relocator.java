@@ -1,13 +1,21 @@
 package asmlib.util.relocation;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import asmlib.util.metrics.Metrics;
+import asmlib.util.metrics.StageTimer;
 import asmlib.util.relocation.RelocatableObject.Endianness;
 
 /**
@@ -19,25 +27,91 @@ public class Relocator {
     
     private static Logger LOG = Logger.getLogger(Relocator.class.getName());
     
+    /**
+     * An object as placed in a link, with its incoming references resolved to symbol IDs
+     */
+    private static class LinkedObject {
+        RelocatableObject obj;
+        
+        int index;
+        
+        long location;
+        
+        boolean fixed;
+        
+        String[] incomingNames;
+        
+        int[] incomingIds,
+              incomingWidths;
+        
+        List<List<Integer>> incomingSites;
+        
+        /**
+         * Flattens the incoming references of an object
+         * 
+         * @param obj
+         * @param index Index of the object in the link
+         */
+        LinkedObject(RelocatableObject obj, int index) {
+            this.obj = obj;
+            this.index = index;
+            
+            int n = obj.incomingReferences.size(),
+                k = 0;
+            
+            this.incomingNames = new String[n];
+            this.incomingIds = new int[n];
+            this.incomingWidths = new int[n];
+            this.incomingSites = new ArrayList<>(n);
+            
+            for(Entry<String, List<Integer>> e : obj.incomingReferences.entrySet()) {
+                this.incomingNames[k] = e.getKey();
+                this.incomingWidths[k] = obj.incomingReferenceWidths.get(e.getKey());
+                this.incomingSites.add(e.getValue());
+                k++;
+            }
+        }
+    }
+    
     private ArrayList<RelocatableObject> objects;
     
-    private HashMap<String, Long> relocatedReferences,
-                                  objectLocations,
-                                  fixedOrigins;
+    // as of the last relocation, in the same order as objects
+    private LinkedObject[] linked;
+    
+    private SymbolTable symbols;
+    
+    private LinkResult lastResult;
+    
+    private int addressCacheSize = 0;
+    
+    private boolean parallel = false,
+                    incremental = false;
+    
+    private String entrySymbol = null;
     
-    private TreeMap<Long, String> referenceNameMap;
+    private PlacementAllocator.Policy placementPolicy = PlacementAllocator.Policy.BEST_FIT;
     
-    private boolean hasFixed = false;
+    private long alignment = 1,
+                 gapBytes = 0;
+    
+    // state kept from the last relocation for incremental relinking
+    private ByteBuffer lastImage;
+    
+    private long lastStart;
+    
+    private long[] lastStarts,
+                   objectHashes;
+    
+    private ArrayList<List<LinkedObject>> referrers;
     
     /**
      * Initializes a relocator
      */
     public Relocator() {
         this.objects = new ArrayList<>();
-        this.relocatedReferences = new HashMap<>();
-        this.objectLocations = new HashMap<>();
-        this.fixedOrigins = new HashMap<>();
-        this.referenceNameMap = new TreeMap<>();
+        this.linked = new LinkedObject[0];
+        this.symbols = new SymbolTable(new String[0], 0);
+        this.lastResult = new LinkResult(0, 0, null, Map.of(), this.symbols, 0);
     }
     
     /**
@@ -47,11 +121,6 @@ public class Relocator {
      */
     public void add(RelocatableObject o) {
         this.objects.add(o);
-        
-        if(o.outgoingReferences.containsKey("ORIGIN")) {
-            this.fixedOrigins.put(o.name, Integer.toUnsignedLong(o.outgoingReferences.get("ORIGIN")));
-            this.hasFixed = true;
-        }
     }
     
     /**
@@ -61,204 +130,954 @@ public class Relocator {
      * @return
      */
     public byte[] relocate(long startPosition) {
-        String libs = "";
-        for(RelocatableObject obj : objects) libs += ", " + obj.name;
+        long totalCodeSize = place(startPosition);
+        
+        if(totalCodeSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Relocated code size " + totalCodeSize + " is too large for an array");
+        }
         
-        LOG.fine("Relocating libraries: " + libs.substring(2));
+        byte[] code = new byte[(int) totalCodeSize];
+        write(ByteBuffer.wrap(code), Arrays.asList(this.linked), 0, startPosition);
+        track(ByteBuffer.wrap(code), startPosition);
+        publish(null, startPosition, totalCodeSize);
         
-        long index = startPosition,
-             totalCodeSize = 0;
+        LOG.fine("Final code size " + code.length + " bytes");
         
-        // sort by object code length
-        this.objects.sort((a, b) -> {
-            return a.objectCodeSize - b.objectCodeSize;
-        });
+        return code;
+    }
+    
+    /**
+     * Relocates all loaded objects into an image owned by the result. The result is not affected by later
+     * changes to the relocator.
+     * 
+     * @param startPosition Physical start address
+     * @return A snapshot of the link, including the image
+     */
+    public LinkResult link(long startPosition) {
+        ByteBuffer image = ByteBuffer.wrap(relocate(startPosition));
         
-        // Stuff for placing libraries optimally
-        TreeSet<Long> objectStartAddresses = new TreeSet<>();
-        HashMap<Long, Long> objectEndAddresses = new HashMap<>();
-        long minimumStartAddress = 0;
+        // relinking updates the tracked image in place, so the result needs its own
+        if(this.lastImage != null) {
+            image = ByteBuffer.allocate(image.capacity()).put(0, image, 0, image.capacity());
+        }
         
-        // handle fixed locations
-        for(RelocatableObject obj : objects) {
-            if(this.fixedOrigins.containsKey(obj.name)) {
-                long o = this.fixedOrigins.get(obj.name) - startPosition,
-                     l = obj.objectCodeSize;
-                
-                LOG.finest(obj.name + " has fixed location " + (o + startPosition));
-                
-                if(o < 0l) {
-                    throw new IllegalArgumentException("Fixed location " + (o + startPosition) + " is before the start position");
-                }
-                
-                this.objectLocations.put(obj.name, o);
-                
-                // check overlap
-                if(objectStartAddresses.size() != 0) {
-                    Long closestStart = objectStartAddresses.floor(o + l - 1);
-                    
-                    if(closestStart != null) {
-                        if(closestStart > o || objectEndAddresses.get(closestStart) > o) {
-                            throw new IllegalArgumentException("Objects with fixed origins must not overlap");
-                        }
-                    }
-                }
-                
-                objectStartAddresses.add(o);
-                objectEndAddresses.put(o, o + l - 1);
+        return publish(image, startPosition, image.capacity());
+    }
+    
+    /**
+     * Relocates all loaded objects directly into the given array. Bytes between objects are zeroed.
+     * 
+     * @param startPosition Physical start address
+     * @param dest Destination array
+     * @param destOffset Index in dest corresponding to startPosition
+     * @return Size of the relocated code in bytes
+     */
+    public int relocate(long startPosition, byte[] dest, int destOffset) {
+        return relocate(startPosition, ByteBuffer.wrap(dest).position(destOffset));
+    }
+    
+    /**
+     * Relocates all loaded objects directly into the given buffer, starting at its current position. The
+     * position is advanced past the relocated code. Bytes between objects are zeroed, matching an image from
+     * {@link #relocate(long)}.
+     * 
+     * @param startPosition Physical start address
+     * @param dest Destination buffer
+     * @return Size of the relocated code in bytes
+     */
+    public int relocate(long startPosition, ByteBuffer dest) {
+        long totalCodeSize = place(startPosition);
+        
+        if(totalCodeSize > dest.remaining()) {
+            throw new IllegalArgumentException("Relocated code size " + totalCodeSize + " exceeds the " + dest.remaining() + " bytes remaining in the destination");
+        }
+        
+        int size = (int) totalCodeSize;
+        ByteBuffer image = dest.slice(dest.position(), size);
+        write(image, Arrays.asList(this.linked), 0, startPosition);
+        if(this.gapBytes != 0) clearGaps(image);
+        track(image, startPosition);
+        publish(null, startPosition, size);
+        dest.position(dest.position() + size);
+        
+        LOG.fine("Final code size " + size + " bytes");
+        
+        return size;
+    }
+    
+    /**
+     * Zeroes the bytes of an image not covered by any object, which may hold whatever the destination did
+     * 
+     * @param image
+     */
+    private void clearGaps(ByteBuffer image) {
+        List<LinkedObject> ordered = new ArrayList<>(Arrays.asList(this.linked));
+        ordered.sort((a, b) -> Long.compare(a.location, b.location));
+        
+        long pos = 0;
+        
+        for(LinkedObject lo : ordered) {
+            for(long i = pos; i < lo.location; i++) image.put((int) i, (byte) 0);
+            
+            pos = Math.max(pos, lo.location + lo.obj.objectCodeSize);
+        }
+        
+        for(long i = pos; i < image.limit(); i++) image.put((int) i, (byte) 0);
+    }
+    
+    /**
+     * Relocates all loaded objects into a sparse image. Objects separated by at most maxGap bytes share a
+     * segment, so memory use is proportional to the code rather than the span of addresses it occupies.
+     * 
+     * @param startPosition Physical start address
+     * @param maxGap Largest gap, in bytes, to fill with zeros rather than starting a new segment
+     * @return Segments in ascending address order
+     */
+    public List<ImageSegment> relocateSegments(long startPosition, long maxGap) {
+        long totalCodeSize = place(startPosition);
+        
+        // objects in address order. empty objects have nothing to write
+        List<LinkedObject> ordered = new ArrayList<>(Arrays.asList(this.linked));
+        ordered.removeIf(lo -> lo.obj.objectCodeSize == 0);
+        ordered.sort((a, b) -> Long.compare(a.location, b.location));
+        
+        List<ImageSegment> segments = new ArrayList<>();
+        List<LinkedObject> segmentObjects = new ArrayList<>();
+        long segmentStart = 0,
+             segmentEnd = 0;
+        
+        for(LinkedObject lo : ordered) {
+            long end = lo.location + lo.obj.objectCodeSize;
+            
+            // start a new segment if the gap is too large or the segment would be too large for an array
+            if(!segmentObjects.isEmpty() && (lo.location - segmentEnd > maxGap || end - segmentStart > Integer.MAX_VALUE)) {
+                segments.add(writeSegment(segmentObjects, segmentStart, segmentEnd, startPosition));
+                segmentObjects.clear();
+            }
+            
+            if(segmentObjects.isEmpty()) segmentStart = lo.location;
+            
+            segmentObjects.add(lo);
+            segmentEnd = end;
+        }
+        
+        if(!segmentObjects.isEmpty()) {
+            segments.add(writeSegment(segmentObjects, segmentStart, segmentEnd, startPosition));
+        }
+        
+        track(null, startPosition);
+        publish(null, startPosition, totalCodeSize);
+        
+        if(LOG.isLoggable(Level.FINE)) {
+            long size = 0;
+            for(ImageSegment seg : segments) size += seg.data().length;
+            
+            LOG.fine("Final code size " + size + " bytes in " + segments.size() + " segments");
+        }
+        
+        return segments;
+    }
+    
+    /**
+     * Relocates all loaded objects into a sparse image, with a segment for each contiguous run of objects
+     * 
+     * @param startPosition Physical start address
+     * @return Segments in ascending address order
+     */
+    public List<ImageSegment> relocateSegments(long startPosition) {
+        return relocateSegments(startPosition, 0);
+    }
+    
+    /**
+     * Writes a group of objects into a new segment
+     * 
+     * @param los
+     * @param segmentStart
+     * @param segmentEnd
+     * @param startPosition
+     * @return
+     */
+    private ImageSegment writeSegment(List<LinkedObject> los, long segmentStart, long segmentEnd, long startPosition) {
+        byte[] data = new byte[(int)(segmentEnd - segmentStart)];
+        write(ByteBuffer.wrap(data), los, segmentStart, startPosition);
+        
+        LOG.finer(String.format("Segment at %08X, %s bytes", segmentStart + startPosition, data.length));
+        
+        return new ImageSegment(segmentStart + startPosition, data);
+    }
+    
+    /**
+     * Replaces objects by name and updates the image of the last relocation in place. Only objects whose
+     * contents changed are copied again, and in other objects only references to symbols that moved are
+     * patched. Changed objects keep their locations, so this succeeds only while each fits in the space
+     * before the next object and no fixed origin changes. Otherwise the objects are still replaced and the
+     * caller must relocate again. Requires change tracking to be enabled for the last relocation.
+     * 
+     * @param changed New versions of objects, matched to loaded objects by name. Unknown names are added.
+     * @return {@code true} if the image was updated in place, {@code false} if the objects must be relocated
+     */
+    public boolean relink(Collection<RelocatableObject> changed) {
+        HashMap<String, Integer> indices = new HashMap<>();
+        for(int i = 0; i < this.objects.size(); i++) indices.put(this.objects.get(i).name, i);
+        
+        boolean inPlace = this.lastImage != null;
+        List<RelocatableObject> updated = new ArrayList<>();
+        
+        // find what actually changed
+        for(RelocatableObject obj : changed) {
+            if(!indices.containsKey(obj.name)) {
+                // new objects need placement
+                LOG.finer("Relink adds " + obj.name);
+                add(obj);
+                inPlace = false;
+            } else if(!inPlace || this.objectHashes[indices.get(obj.name)] != obj.contentHash()) {
+                updated.add(obj);
+            }
+        }
+        
+        // check that changed objects can stay where they are
+        for(RelocatableObject obj : updated) {
+            if(!inPlace) break;
+            
+            LinkedObject old = this.linked[indices.get(obj.name)];
+            Integer oldOrigin = old.obj.outgoingReferences.get("ORIGIN"),
+                    newOrigin = obj.outgoingReferences.get("ORIGIN");
+            
+            if(!Objects.equals(oldOrigin, newOrigin)) {
+                LOG.finer("Relink moves fixed origin of " + obj.name);
+                inPlace = false;
+            } else if(obj.objectCodeSize > slotSize(old)) {
+                LOG.finer("Relink outgrows location of " + obj.name);
+                inPlace = false;
+            }
+        }
+        
+        if(!inPlace) {
+            for(RelocatableObject obj : updated) replace(indices.get(obj.name), obj);
+            
+            this.lastImage = null;
+            return false;
+        }
+        
+        LOG.fine("Relinking " + updated.size() + " changed objects");
+        
+        // the table is shared with the published result, so modify a copy
+        this.symbols = new SymbolTable(this.symbols);
+        
+        // resolve new outgoing references
+        boolean[] isUpdated = new boolean[this.linked.length];
+        HashMap<Integer, Long> oldAddresses = new HashMap<>(),
+                               newAddresses = new HashMap<>();
+        
+        for(RelocatableObject obj : updated) {
+            int index = indices.get(obj.name);
+            LinkedObject old = this.linked[index];
+            
+            isUpdated[index] = true;
+            
+            for(String s : old.obj.outgoingReferences.keySet()) {
+                int id = this.symbols.find(index, s);
                 
-                if(o <= minimumStartAddress && (o + l) >= minimumStartAddress) {
-                    minimumStartAddress = o + l;
+                if(id >= 0 && this.symbols.isDefined(id)) oldAddresses.put(id, this.symbols.address(id));
+            }
+            
+            for(Entry<String, Integer> e : obj.outgoingReferences.entrySet()) {
+                newAddresses.put(this.symbols.intern(index, e.getKey()), e.getValue() + old.location + this.lastStart);
+            }
+        }
+        
+        // nothing can be modified until every reference is known to resolve
+        for(int id : oldAddresses.keySet()) {
+            if(newAddresses.containsKey(id)) continue;
+            
+            for(LinkedObject ref : referrersOf(id)) {
+                if(!isUpdated[ref.index]) {
+                    LOG.severe("Reference not found: " + this.symbols.name(id) + " in " + ref.obj.name);
+                    throw new IllegalArgumentException("Reference not found: " + this.symbols.name(id) + " in " + ref.obj.name);
                 }
             }
         }
         
-        // determine locations and count total length
-        for(RelocatableObject obj : objects) {
-            if(!this.hasFixed) {
-                this.objectLocations.put(obj.name, index - startPosition);
-                totalCodeSize += obj.objectCodeSize;
-                index += obj.objectCodeSize;
-            } else {
-                if(this.objectLocations.containsKey(obj.name)) { 
-                    // it's already been located by its fixed position
-                    long i = this.objectLocations.get(obj.name),
-                         l = obj.objectCodeSize;
-                    
-                    if(i + l > totalCodeSize) totalCodeSize = i + l;
-                } else {
-                    // i is the address we intend to start at
-                    long i = minimumStartAddress,
-                         l = obj.objectCodeSize,
-                         lastStart = 0;
-                    
-                    while(true) {
-                        // until the full necessary range is clear, search the address space
-                        Long closestStart = objectStartAddresses.floor(i + l - 1);
-                        
-                        if(closestStart != null) {
-                            long closestEnd = objectEndAddresses.get(closestStart);
-                            
-                            // overlap = search from end of given segment
-                            if(closestStart > i || closestEnd > i) {
-                                i = closestEnd + 1;
-                                lastStart = closestStart;
-                                continue;
-                            }
-                        }
-                        
-                        break;
-                    }
-                    
-                    // we're either at 0 or the end of a previous segment
-                    if(lastStart == 0) objectStartAddresses.add(0l);
-                    
-                    // extend entry
-                    objectEndAddresses.put(lastStart, i + l - 1);
-                    this.objectLocations.put(obj.name, i);
-                    
-                    if(i + l > totalCodeSize) totalCodeSize = i + l; // code size is the end of the last segment
+        for(RelocatableObject obj : updated) {
+            for(String s : obj.incomingReferences.keySet()) {
+                int id = this.symbols.find(s);
+                
+                if(id < 0 || !(newAddresses.containsKey(id) || (this.symbols.isDefined(id) && !oldAddresses.containsKey(id)))) {
+                    LOG.severe("Reference not found: " + s + " in " + obj.name);
+                    throw new IllegalArgumentException("Reference not found: " + s + " in " + obj.name);
                 }
             }
         }
         
-        // copy object code
-        byte[] code = new byte[(int) totalCodeSize];
+        // update symbols
+        HashSet<Integer> moved = new HashSet<>();
         
-        for(RelocatableObject obj : objects) {
-            index = this.objectLocations.get(obj.name);
+        for(Entry<Integer, Long> e : oldAddresses.entrySet()) {
+            this.symbols.undefine(e.getKey());
             
-            LOG.finest(obj.name + " placed at " + index);
+            if(!e.getValue().equals(newAddresses.get(e.getKey()))) moved.add(e.getKey());
+        }
+        
+        for(Entry<Integer, Long> e : newAddresses.entrySet()) {
+            this.symbols.define(e.getKey(), e.getValue());
+            
+            if(!e.getValue().equals(oldAddresses.get(e.getKey()))) moved.add(e.getKey());
+        }
+        
+        // rewrite changed objects
+        for(RelocatableObject obj : updated) {
+            int index = indices.get(obj.name);
+            LinkedObject old = this.linked[index];
             
-            for(int i = 0; i < obj.objectCodeSize; i++) {
-                code[(int)(index++)] = obj.objectCode[i];
+            // clear whatever the old version left behind
+            for(long i = old.location + obj.objectCodeSize; i < old.location + old.obj.objectCodeSize; i++) {
+                this.lastImage.put((int) i, (byte) 0);
             }
+            
+            replace(index, obj);
+            copyObject(this.linked[index], this.lastImage, 0);
+            patchObject(this.linked[index], this.lastImage, 0, this.lastStart);
         }
         
-        // avoid extra work
-        if(LOG.getLevel() == Level.FINEST) {
-            LOG.finest("Initial Object Code:");
-            for(int i = 0; i < code.length; i += 16) {
-                String s = "";
+        // patch references to moved symbols in everything else
+        for(int id : moved) {
+            for(LinkedObject ref : referrersOf(id)) {
+                if(isUpdated[ref.index]) continue;
                 
-                for(int j = 0; j < 16 && (i + j) < code.length; j++) {
-                    s += String.format("%02X ", code[i + j]);
-                    if(j % 8 == 7) s += " ";
+                for(int k = 0; k < ref.incomingIds.length; k++) {
+                    if(ref.incomingIds[k] == id) patchReference(ref, k, this.lastImage, 0, this.lastStart);
                 }
+            }
+        }
+        
+        ByteBuffer image = null;
+        
+        if(this.lastResult.getImage() != null) {
+            image = ByteBuffer.allocate(this.lastImage.limit()).put(0, this.lastImage, 0, this.lastImage.limit());
+        }
+        
+        publish(image, this.lastStart, this.lastResult.getSize());
+        
+        LOG.fine("Relinked " + updated.size() + " objects, " + moved.size() + " symbols moved");
+        
+        return true;
+    }
+    
+    /**
+     * Replaces the object at the given index, keeping change tracking up to date
+     * 
+     * @param index
+     * @param obj
+     */
+    private void replace(int index, RelocatableObject obj) {
+        this.objects.set(index, obj);
+        
+        if(this.lastImage != null) {
+            LinkedObject old = this.linked[index],
+                         lo = new LinkedObject(obj, index);
+            
+            lo.location = old.location;
+            lo.fixed = old.fixed;
+            resolve(lo);
+            
+            removeReferrer(old);
+            addReferrer(lo);
+            
+            this.linked[index] = lo;
+            this.objectHashes[index] = obj.contentHash();
+        }
+    }
+    
+    /**
+     * Gets the number of bytes available to an object at its current location
+     * 
+     * @param lo
+     * @return
+     */
+    private long slotSize(LinkedObject lo) {
+        // first start after this one. an empty object shares its location with a neighbour, which it can't grow
+        // into, so a start at the same location counts
+        int i = Arrays.binarySearch(this.lastStarts, (lo.obj.objectCodeSize == 0) ? lo.location : lo.location + 1);
+        if(i < 0) i = -i - 1;
+        
+        return ((i < this.lastStarts.length) ? this.lastStarts[i] : this.lastImage.limit()) - lo.location;
+    }
+    
+    /**
+     * Publishes a snapshot of the current link
+     * 
+     * @param image Image to include, or null
+     * @param startPosition
+     * @param size
+     * @return
+     */
+    private LinkResult publish(ByteBuffer image, long startPosition, long size) {
+        HashMap<String, Long> locations = new HashMap<>();
+        
+        for(LinkedObject lo : this.linked) {
+            locations.put(lo.obj.name, lo.location + startPosition);
+        }
+        
+        this.lastResult = new LinkResult(startPosition, size, image, locations, this.symbols, this.addressCacheSize);
+        return this.lastResult;
+    }
+    
+    /**
+     * Records the state needed to relink the image of the last relocation, if change tracking is enabled
+     * 
+     * @param image Image written, or null if it is not kept
+     * @param startPosition
+     */
+    private void track(ByteBuffer image, long startPosition) {
+        this.lastImage = (this.incremental && this.entrySymbol == null) ? image : null;
+        this.lastStart = startPosition;
+        
+        if(this.lastImage == null) {
+            this.objectHashes = null;
+            this.referrers = null;
+            this.lastStarts = null;
+            return;
+        }
+        
+        this.objectHashes = new long[this.linked.length];
+        this.referrers = new ArrayList<>();
+        this.lastStarts = Arrays.stream(this.linked)
+                                .filter(lo -> lo.obj.objectCodeSize != 0)
+                                .mapToLong(lo -> lo.location)
+                                .sorted()
+                                .toArray();
+        
+        for(LinkedObject lo : this.linked) {
+            this.objectHashes[lo.index] = lo.obj.contentHash();
+            addReferrer(lo);
+        }
+    }
+    
+    /**
+     * Gets the objects referencing a symbol
+     * 
+     * @param id
+     * @return
+     */
+    private List<LinkedObject> referrersOf(int id) {
+        if(id >= this.referrers.size() || this.referrers.get(id) == null) return List.of();
+        
+        return this.referrers.get(id);
+    }
+    
+    /**
+     * Indexes an object by the symbols it references
+     * 
+     * @param lo
+     */
+    private void addReferrer(LinkedObject lo) {
+        for(int id : lo.incomingIds) {
+            if(id < 0) continue;
+            
+            while(this.referrers.size() <= id) this.referrers.add(null);
+            if(this.referrers.get(id) == null) this.referrers.set(id, new ArrayList<>());
+            
+            this.referrers.get(id).add(lo);
+        }
+    }
+    
+    /**
+     * Removes an object from the referrer index
+     * 
+     * @param lo
+     */
+    private void removeReferrer(LinkedObject lo) {
+        for(int id : lo.incomingIds) {
+            if(id >= 0) referrersOf(id).remove(lo);
+        }
+    }
+    
+    /**
+     * Determines the location of each object and relocates outgoing references
+     * 
+     * @param startPosition Physical start address
+     * @return Total code size
+     */
+    private long place(long startPosition) {
+        StageTimer timer = Metrics.begin(Metrics.Stage.PLACEMENT);
+        RelocationEvents.RelocationPhase event = new RelocationEvents.RelocationPhase();
+        event.begin();
+        
+        if(LOG.isLoggable(Level.FINE)) {
+            List<String> libs = new ArrayList<>(this.objects.size());
+            for(RelocatableObject obj : this.objects) libs.add(obj.name);
+            
+            LOG.fine("Relocating libraries: " + String.join(", ", libs));
+        }
+        
+        boolean hasFixed = false;
+        for(RelocatableObject obj : objects) hasFixed |= obj.outgoingReferences.containsKey("ORIGIN");
+        
+        if(hasFixed) {
+            // largest first fills the gaps around fixed objects best
+            this.objects.sort((a, b) -> {
+                return b.objectCodeSize - a.objectCodeSize;
+            });
+        } else {
+            // sort by object code length
+            this.objects.sort((a, b) -> {
+                return a.objectCodeSize - b.objectCodeSize;
+            });
+        }
+        
+        List<RelocatableObject> live = (this.entrySymbol == null) ? this.objects : reachable(this.entrySymbol);
+        
+        // fail before doing any work if the link can't succeed
+        SymbolTable table = analyze(live);
+        
+        this.linked = new LinkedObject[live.size()];
+        
+        for(int i = 0; i < this.linked.length; i++) {
+            this.linked[i] = new LinkedObject(live.get(i), i);
+        }
+        
+        PlacementAllocator allocator = new PlacementAllocator(this.placementPolicy, startPosition, this.alignment);
+        
+        // handle fixed locations
+        for(LinkedObject lo : this.linked) {
+            Integer origin = lo.obj.outgoingReferences.get("ORIGIN");
+            
+            if(origin != null) {
+                long o = Integer.toUnsignedLong(origin) - startPosition;
+                
+                LOG.finest(lo.obj.name + " has fixed location " + (o + startPosition));
                 
-                LOG.finest(s);
+                allocator.reserve(o, lo.obj.objectCodeSize);
+                lo.location = o;
+                lo.fixed = true;
             }
         }
         
+        // place everything else
+        for(LinkedObject lo : this.linked) {
+            if(!lo.fixed) lo.location = allocator.allocate(lo.obj.objectCodeSize);
+        }
+        
+        long totalCodeSize = allocator.getHighWater();
+        this.gapBytes = allocator.getGapBytes();
+        
+        LOG.finer("Placement left " + this.gapBytes + " bytes of gaps");
+        
+        event.finish("placement", this.linked.length);
+        event = new RelocationEvents.RelocationPhase();
+        event.begin();
+        
         // relocate outgoing references
-        for(RelocatableObject obj : objects) {
-            long offset = this.objectLocations.get(obj.name);
-            
-            for(String s : obj.outgoingReferences.keySet()) {
-                long addr = obj.outgoingReferences.get(s) + offset + startPosition;
-                String dName = obj.name + "." + s;
-                this.relocatedReferences.put(dName, addr);
-                this.referenceNameMap.put(addr, dName);
+        this.symbols = table;
+        
+        for(LinkedObject lo : this.linked) {
+            for(Entry<String, Integer> e : lo.obj.outgoingReferences.entrySet()) {
+                int id = this.symbols.intern(lo.index, e.getKey());
+                long addr = e.getValue() + lo.location + startPosition;
+                
+                this.symbols.define(id, addr);
+            }
+        }
+        
+        if(LOG.isLoggable(Level.FINER)) {
+            LOG.finer("Relocated outgoing references:");
+            for(int id = 0; id < this.symbols.size(); id++) {
+                LOG.finer(String.format("%s: %08X", this.symbols.name(id), this.symbols.address(id)));
+            }
+        }
+        
+        // resolve incoming references
+        for(LinkedObject lo : this.linked) {
+            resolve(lo);
+        }
+        
+        event.finish("outgoing", this.linked.length);
+        
+        timer.end();
+        Metrics.count(Metrics.Counter.OBJECTS, this.linked.length);
+        Metrics.count(Metrics.Counter.GAP_BYTES, this.gapBytes);
+        
+        return totalCodeSize;
+    }
+    
+    /**
+     * Finds the objects reachable from an entry symbol and from objects with fixed origins, following
+     * incoming references. An object is reached through a reference if its name could be the object part
+     * of the reference's name.
+     * 
+     * @param entry Full name of the entry symbol
+     * @return Reachable objects, in the same order as the loaded objects
+     */
+    private List<RelocatableObject> reachable(String entry) {
+        HashMap<String, List<Integer>> byName = new HashMap<>();
+        
+        for(int i = 0; i < this.objects.size(); i++) {
+            byName.computeIfAbsent(this.objects.get(i).name, k -> new ArrayList<>()).add(i);
+        }
+        
+        boolean[] reached = new boolean[this.objects.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        
+        for(int i = 0; i < this.objects.size(); i++) {
+            if(this.objects.get(i).outgoingReferences.containsKey("ORIGIN")) {
+                reached[i] = true;
+                queue.add(i);
+            }
+        }
+        
+        if(!reach(entry, byName, reached, queue)) {
+            LOG.severe("Reference not found: " + entry);
+            throw new IllegalArgumentException("Reference not found: " + entry);
+        }
+        
+        while(!queue.isEmpty()) {
+            for(String s : this.objects.get(queue.poll()).incomingReferences.keySet()) {
+                reach(s, byName, reached, queue);
             }
         }
         
-        LOG.finer("Relocated outgoing references:");
-        for(String s : this.relocatedReferences.keySet()) {
-            LOG.finer(String.format("%s: %08X", s, this.relocatedReferences.get(s)));
+        List<RelocatableObject> live = new ArrayList<>();
+        
+        for(int i = 0; i < reached.length; i++) {
+            if(reached[i]) live.add(this.objects.get(i));
         }
         
-        // relocate incoming references
-        LOG.finer("Relocating incoming references");
-        for(RelocatableObject obj : objects) {
-            long offset = this.objectLocations.get(obj.name);
+        LOG.fine("Eliminated " + (this.objects.size() - live.size()) + " unreachable objects");
+        
+        return live;
+    }
+    
+    /**
+     * Marks the objects a reference could refer to as reached
+     * 
+     * @param reference Full name of the reference
+     * @param byName Object indices by object name
+     * @param reached
+     * @param queue Newly reached objects are added here
+     * @return {@code true} if any object could be referred to
+     */
+    private boolean reach(String reference, HashMap<String, List<Integer>> byName, boolean[] reached, ArrayDeque<Integer> queue) {
+        boolean found = false;
+        
+        // names may contain dots, so try every split
+        for(int dot = reference.indexOf('.'); dot >= 0; dot = reference.indexOf('.', dot + 1)) {
+            List<Integer> candidates = byName.get(reference.substring(0, dot));
+            if(candidates == null) continue;
             
-            for(String s : obj.incomingReferences.keySet()) {
-                LOG.finer("Relocating " + s + " in " + obj.name);
-                
-                long addrSize = obj.incomingReferenceWidths.get(s),
-                     addr;
-                
-                try {
-                    addr = this.relocatedReferences.get(s);
-                } catch(NullPointerException e) {
-                    LOG.severe("Reference not found: " + s + " in " + obj.name);
-                    throw e;
+            for(int i : candidates) {
+                if(this.objects.get(i).outgoingReferences.containsKey(reference.substring(dot + 1))) {
+                    found = true;
+                    
+                    if(!reached[i]) {
+                        reached[i] = true;
+                        queue.add(i);
+                    }
                 }
+            }
+        }
+        
+        return found;
+    }
+    
+    /**
+     * Checks that every incoming reference of the objects to be linked resolves and that no symbol is
+     * defined more than once, without placing or copying anything.
+     * 
+     * @throws IllegalArgumentException listing every unresolved and duplicate symbol
+     */
+    public void check() {
+        analyze((this.entrySymbol == null) ? this.objects : reachable(this.entrySymbol));
+    }
+    
+    /**
+     * Interns the outgoing references of a list of objects, then checks every incoming reference against
+     * them. All problems are collected before failing.
+     * 
+     * @param objs Objects, in link order
+     * @return Symbol table with every outgoing reference interned and none defined
+     * @throws IllegalArgumentException listing every unresolved and duplicate symbol
+     */
+    private SymbolTable analyze(List<RelocatableObject> objs) {
+        String[] objectNames = new String[objs.size()];
+        int symbolCount = 0;
+        
+        for(int i = 0; i < objectNames.length; i++) {
+            objectNames[i] = objs.get(i).name;
+            symbolCount += objs.get(i).outgoingReferences.size();
+        }
+        
+        SymbolTable table = new SymbolTable(objectNames, symbolCount);
+        List<String> errors = new ArrayList<>();
+        
+        // outgoing references. objects sharing a name share symbols, so a repeated ID is a duplicate
+        for(int i = 0; i < objectNames.length; i++) {
+            for(String s : objs.get(i).outgoingReferences.keySet()) {
+                int id = table.intern(i, s);
                 
-                for(int i : obj.incomingReferences.get(s)) {
-                    LOG.finest(String.format("Placed %08X at %08X", addr, i + offset + startPosition));
+                if(table.isDefined(id)) {
+                    errors.add("Duplicate symbol: " + table.name(id));
+                } else {
+                    table.define(id, 0);
+                }
+            }
+        }
+        
+        // incoming references
+        for(RelocatableObject obj : objs) {
+            for(String s : obj.incomingReferences.keySet()) {
+                if(table.find(s) < 0) errors.add("Reference not found: " + s + " in " + obj.name);
+            }
+        }
+        
+        LOG.finer("Symbol analysis found " + errors.size() + " errors");
+        
+        // if we had any errors, bundle them into an exception
+        if(errors.size() != 0) {
+            String msg = String.join(", ", errors);
+            
+            LOG.severe(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        
+        for(int id = 0; id < table.size(); id++) table.undefine(id);
+        
+        return table;
+    }
+    
+    /**
+     * Resolves the incoming references of an object to symbol IDs
+     * 
+     * @param lo
+     */
+    private void resolve(LinkedObject lo) {
+        for(int k = 0; k < lo.incomingNames.length; k++) {
+            lo.incomingIds[k] = this.symbols.find(lo.incomingNames[k]);
+        }
+    }
+    
+    /**
+     * Copies object code into the image and relocates incoming references. Objects must already be placed.
+     * 
+     * @param image Image buffer, index 0 corresponding to imageOffset
+     * @param los Objects to write, all of which must lie within the image
+     * @param imageOffset Offset from startPosition of the start of the image
+     * @param startPosition Physical start address
+     */
+    private void write(ByteBuffer image, List<LinkedObject> los, long imageOffset, long startPosition) {
+        StageTimer timer = Metrics.begin(Metrics.Stage.RELOCATION);
+        RelocationEvents.RelocationPhase event = new RelocationEvents.RelocationPhase();
+        event.begin();
+        
+        if(this.parallel) {
+            // each object only writes to its own region of the image
+            LOG.finer("Relocating objects in parallel");
+            los.parallelStream().forEach(lo -> {
+                copyObject(lo, image, imageOffset);
+                patchObject(lo, image, imageOffset, startPosition);
+            });
+            
+            event.finish("copy+patch", los.size());
+        } else {
+            for(LinkedObject lo : los) {
+                copyObject(lo, image, imageOffset);
+            }
+            
+            event.finish("copy", los.size());
+            
+            // avoid extra work
+            if(LOG.getLevel() == Level.FINEST) {
+                LOG.finest("Initial Object Code:");
+                for(int i = 0; i < image.limit(); i += 16) {
+                    String s = "";
                     
-                    for(int a = 0; a < addrSize; a++) {
-                        byte b = (byte)((addr >> (a * 8)) & 0xFF);
-                        
-                        if(obj.objectEndianness == Endianness.LITTLE) {
-                            code[(int)(i + a + offset)] = b;
-                        } else {
-                            code[(int)(i + (addrSize - a - 1) + offset)] = b;
-                        }
+                    for(int j = 0; j < 16 && (i + j) < image.limit(); j++) {
+                        s += String.format("%02X ", image.get(i + j));
+                        if(j % 8 == 7) s += " ";
                     }
+                    
+                    LOG.finest(s);
                 }
             }
+            
+            event = new RelocationEvents.RelocationPhase();
+            event.begin();
+            
+            LOG.finer("Relocating incoming references");
+            for(LinkedObject lo : los) {
+                patchObject(lo, image, imageOffset, startPosition);
+            }
+            
+            event.finish("patch", los.size());
         }
         
         if(LOG.getLevel() == Level.FINEST) {
             LOG.finest("Final Object Code:");
             LOG.finest("           0  1  2  3  4  5  6  7   8  9  A  B  C  D  E  F");
-            for(int i = 0; i < code.length; i += 16) {
+            for(int i = 0; i < image.limit(); i += 16) {
                 String s = "";
                 
-                for(int j = 0; j < 16 && (i + j) < code.length; j++) {
-                    s += String.format("%02X ", code[i + j]);
+                for(int j = 0; j < 16 && (i + j) < image.limit(); j++) {
+                    s += String.format("%02X ", image.get(i + j));
                     if(j % 8 == 7) s += " ";
                 }
                 
-                LOG.finest(String.format("%08X: %s", i + startPosition, s));
+                LOG.finest(String.format("%08X: %s", i + imageOffset + startPosition, s));
             }
         }
         
-        LOG.fine("Final code size " + code.length + " bytes");
+        timer.end();
         
-        return code;
+        if(Metrics.isEnabled()) {
+            long sites = 0;
+            
+            for(LinkedObject lo : los) {
+                for(List<Integer> l : lo.incomingSites) sites += l.size();
+            }
+            
+            Metrics.count(Metrics.Counter.RELOCATIONS, sites);
+        }
+    }
+    
+    /**
+     * Copies an object's code into the image at its location
+     * 
+     * @param lo
+     * @param image
+     * @param imageOffset
+     */
+    private void copyObject(LinkedObject lo, ByteBuffer image, long imageOffset) {
+        LOG.finest(() -> lo.obj.name + " placed at " + lo.location);
+        
+        image.put((int)(lo.location - imageOffset), lo.obj.objectCode, 0, lo.obj.objectCodeSize);
+    }
+    
+    /**
+     * Relocates the incoming references of an object. Outgoing references must already be relocated.
+     * 
+     * @param lo
+     * @param image
+     * @param imageOffset
+     * @param startPosition
+     */
+    private void patchObject(LinkedObject lo, ByteBuffer image, long imageOffset, long startPosition) {
+        for(int k = 0; k < lo.incomingIds.length; k++) {
+            patchReference(lo, k, image, imageOffset, startPosition);
+        }
+    }
+    
+    /**
+     * Relocates a single incoming reference of an object
+     * 
+     * @param lo
+     * @param k Index of the reference in the object
+     * @param image
+     * @param imageOffset
+     * @param startPosition
+     */
+    private void patchReference(LinkedObject lo, int k, ByteBuffer image, long imageOffset, long startPosition) {
+        RelocatableObject obj = lo.obj;
+        String s = lo.incomingNames[k];
+        int id = lo.incomingIds[k];
+        long offset = lo.location - imageOffset;
+        
+        LOG.finer(() -> "Relocating " + s + " in " + obj.name);
+        
+        if(id < 0 || !this.symbols.isDefined(id)) {
+            LOG.severe("Reference not found: " + s + " in " + obj.name);
+            throw new IllegalArgumentException("Reference not found: " + s + " in " + obj.name);
+        }
+        
+        long addrSize = lo.incomingWidths[k],
+             addr = this.symbols.address(id);
+        
+        for(int i : lo.incomingSites.get(k)) {
+            LOG.finest(() -> String.format("Placed %08X at %08X", addr, i + lo.location + startPosition));
+            
+            for(int a = 0; a < addrSize; a++) {
+                byte b = (byte)((addr >> (a * 8)) & 0xFF);
+                
+                if(obj.objectEndianness == Endianness.LITTLE) {
+                    image.put((int)(i + a + offset), b);
+                } else {
+                    image.put((int)(i + (addrSize - a - 1) + offset), b);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Sets whether objects are copied and relocated in parallel. Once objects are placed and outgoing
+     * references are resolved, each object only writes to its own region of the image.
+     * 
+     * @param b {@code true} to relocate in parallel, {@code false} otherwise. Defaults to {@code false}
+     */
+    public void setParallel(boolean b) {
+        this.parallel = b;
+    }
+    
+    /**
+     * Sets how dynamically placed objects are fit around objects with fixed origins
+     * 
+     * @param policy Placement policy. Defaults to {@link PlacementAllocator.Policy#BEST_FIT}
+     */
+    public void setPlacementPolicy(PlacementAllocator.Policy policy) {
+        this.placementPolicy = policy;
+    }
+    
+    /**
+     * Sets the alignment of dynamically placed objects. Objects with fixed origins are not affected.
+     * 
+     * @param alignment Alignment in bytes. Defaults to 1
+     */
+    public void setAlignment(long alignment) {
+        if(alignment < 1) throw new IllegalArgumentException("Alignment must be positive");
+        
+        this.alignment = alignment;
+    }
+    
+    /**
+     * @return Number of unused bytes between placed objects as of the last relocation
+     */
+    public long getGapBytes() {
+        return this.gapBytes;
+    }
+    
+    /**
+     * Sets an entry symbol to link from. If set, only objects reachable from the entry symbol or from an
+     * object with a fixed origin are placed and relocated, and everything else is left out of the image.
+     * Links with an entry symbol are not tracked for {@link #relink(Collection)}.
+     * 
+     * @param name Full name of the entry symbol, or null to link every object. Defaults to null
+     */
+    public void setEntrySymbol(String name) {
+        this.entrySymbol = name;
+    }
+    
+    /**
+     * Sets whether the relocator keeps track of the last relocated image so that it can be updated with
+     * {@link #relink(Collection)}. Sparse relocations are not tracked.
+     * 
+     * @param b {@code true} to track changes, {@code false} otherwise. Defaults to {@code false}
+     */
+    public void setIncremental(boolean b) {
+        this.incremental = b;
+    }
+    
+    /**
+     * Gets a snapshot of the last relocation or in-place relink. The snapshot is safe to share between
+     * threads and is not affected by later changes to the relocator.
+     * 
+     * @return
+     */
+    public LinkResult getLinkResult() {
+        return this.lastResult;
+    }
+    
+    /**
+     * @return The symbol table as of the last relocation
+     */
+    public SymbolTable getSymbolTable() {
+        return this.lastResult.getSymbolTable();
     }
     
     /**
@@ -268,7 +1087,7 @@ public class Relocator {
      * @return
      */
     public long getReference(String name) {
-        return this.relocatedReferences.get(name);
+        return this.lastResult.getReference(name);
     }
     
     /**
@@ -297,13 +1116,30 @@ public class Relocator {
         }
     }
     
+    /**
+     * Sets the size of the cache used by address queries, for when the same addresses are looked up
+     * repeatedly. Takes effect from the next relocation.
+     * 
+     * @param entries Number of cache entries. Defaults to 0, no cache
+     */
+    public void setAddressCacheSize(int entries) {
+        this.addressCacheSize = entries;
+    }
+    
+    /**
+     * @return The address index as of the last relocation
+     */
+    public AddressIndex getAddressIndex() {
+        return this.lastResult.getAddressIndex();
+    }
+    
     /**
      * Gets the name of the given address if it has one, otherwise an empty string
      * 
      * @return
      */
     public String getAddressName(long addr) {
-        return this.referenceNameMap.getOrDefault(addr, "");
+        return this.lastResult.getAddressName(addr);
     }
     
     /**
@@ -312,23 +1148,8 @@ public class Relocator {
      * @param addr
      * @return
      */
-    public String getNearest(long addr) { 
-        Long above = this.referenceNameMap.ceilingKey(addr),
-             below = this.referenceNameMap.floorKey(addr);
-        
-        if(above != null && below != null) {
-            if((above - addr) < (addr - below)) {
-                return getAddressName(above);
-            } else {
-                return getAddressName(below);
-            }
-        } else if(above != null) {
-            return getAddressName(above);
-        } else if(below != null) {
-            return getAddressName(below);
-        } else {
-            return "";
-        }
+    public String getNearest(long addr) {
+        return this.lastResult.getNearest(addr);
     }
     
     /**
@@ -338,13 +1159,7 @@ public class Relocator {
      * @return
      */
     public String getNearestAbove(long addr) {
-        Long above = this.referenceNameMap.ceilingKey(addr);
-        
-        if(above != null) {
-            return getAddressName(above);
-        } else {
-            return "";
-        }
+        return this.lastResult.getNearestAbove(addr);
     }
     
     /**
@@ -353,12 +1168,6 @@ public class Relocator {
      * @return
      */
     public String getNearestBelow(long addr) {
-        Long below = this.referenceNameMap.floorKey(addr);
-        
-        if(below != null) {
-            return getAddressName(below);
-        } else {
-            return "";
-        }
+        return this.lastResult.getNearestBelow(addr);
     }
 }
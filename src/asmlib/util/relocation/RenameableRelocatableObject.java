@@ -3,9 +3,9 @@ package asmlib.util.relocation;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 /**
@@ -78,25 +78,7 @@ public class RenameableRelocatableObject extends RelocatableObject {
      * @param name
      */
     public void renameLibraryFile(File f, String name) {
-        if(!this.libaryMap.containsKey(f)) return;
-        
-        String key = this.libaryMap.get(f);
-        if(key.equals(name)) return; // if renaming would do nothing
-        
-        // copy so we can modify while iterating
-        Set<String> originalKeys = new HashSet<>(this.incomingReferences.keySet());
-        
-        for(String s : originalKeys) {
-            if(s.startsWith(key)) {
-                List<Integer> refs = this.incomingReferences.remove(s);
-                int len = this.incomingReferenceWidths.remove(s);
-                
-                s = name + s.substring(key.length());
-                
-                this.incomingReferences.put(s, refs);
-                this.incomingReferenceWidths.put(s, len);
-            }
-        }
+        renameLibraryFiles(Map.of(f, name));
     }
     
     /**
@@ -105,47 +87,103 @@ public class RenameableRelocatableObject extends RelocatableObject {
      * @param newName
      */
     public void renameLibrary(String oldName, String newName) {
-        // old name sets
-        Set<String> incoming = new HashSet<>(this.incomingReferences.keySet()),
-                    outgoing = new HashSet<>(this.outgoingReferences.keySet());
-        
-        // rename incoming
-        for(String on : incoming) {
-            int idx = on.indexOf('.');
-            String library = on.substring(0, idx),
-                   reference = on.substring(idx);
+        renameLibraries(Map.of(oldName, newName));
+    }
+    
+    /**
+     * Renames incoming references associated with each of the given files, in a single pass over the
+     * incoming reference table. Renames are applied simultaneously.
+     * 
+     * @param names New library name for each file
+     */
+    public void renameLibraryFiles(Map<File, String> names) {
+        HashMap<String, String> renames = new HashMap<>();
+        
+        for(Entry<File, String> e : names.entrySet()) {
+            String key = this.libaryMap.get(e.getKey());
             
-            if(library.equals(oldName)) {
-                String nn = newName + reference;
-                renameMap(this.incomingReferences, on, nn);
-                renameMap(this.incomingReferenceWidths, on, nn);
-            }
+            if(key != null && !key.equals(e.getValue())) renames.put(key, e.getValue());
         }
         
-        // rename outgoing
-        if(oldName.equals(this.name)) {
-            for(String on : outgoing) {
-                if(!on.contains(".")) continue;
-                
-                int idx = on.indexOf('.');
-                String library = on.substring(0, idx),
-                       reference = on.substring(idx);
+        if(!renames.isEmpty()) renameIncoming(renames);
+    }
+    
+    /**
+     * Renames many libraries at once. Every reference table is rebuilt in a single pass, looking up each
+     * reference's library in the mapping. Renames are applied simultaneously, so a library renamed to the old
+     * name of another is not renamed again.
+     * 
+     * @param renames New name for each old library name
+     */
+    public void renameLibraries(Map<String, String> renames) {
+        if(renames.isEmpty()) return;
+        
+        renameIncoming(renames);
+        
+        // rename outgoing and the object itself
+        String newName = renames.get(this.name);
+        
+        if(newName != null) {
+            HashMap<String, Integer> outgoing = new HashMap<>(),
+                                     outgoingWidths = new HashMap<>();
+            
+            for(Entry<String, Integer> e : this.outgoingReferences.entrySet()) {
+                String on = e.getKey(),
+                       nn = on;
                 
-                if(library.equals(oldName)) {
-                    String nn = newName + reference;
-                    renameMap(this.outgoingReferences, on, nn);
-                    renameMap(this.outgoingReferenceWidths, on, nn);
+                if(on.startsWith(this.name) && on.length() > this.nameLength && on.charAt(this.nameLength) == '.') {
+                    nn = newName + on.substring(this.nameLength);
                 }
+                
+                outgoing.put(nn, e.getValue());
+                if(this.outgoingReferenceWidths.containsKey(on)) outgoingWidths.put(nn, this.outgoingReferenceWidths.get(on));
             }
-        }
-        
-        // rename file if needed
-        if(this.name.equals(oldName)) {
+            
+            this.outgoingReferences = outgoing;
+            this.outgoingReferenceWidths = outgoingWidths;
             this.name = newName;
             this.nameLength = newName.length();
         }
     }
     
+    /**
+     * Rebuilds the incoming reference tables with libraries renamed
+     * 
+     * @param renames New name for each old library name
+     */
+    private void renameIncoming(Map<String, String> renames) {
+        HashMap<String, List<Integer>> incoming = new HashMap<>();
+        HashMap<String, Integer> incomingWidths = new HashMap<>();
+        
+        for(Entry<String, List<Integer>> e : this.incomingReferences.entrySet()) {
+            String nn = renamed(e.getKey(), renames);
+            
+            incoming.put(nn, e.getValue());
+            if(this.incomingReferenceWidths.containsKey(e.getKey())) incomingWidths.put(nn, this.incomingReferenceWidths.get(e.getKey()));
+        }
+        
+        this.incomingReferences = incoming;
+        this.incomingReferenceWidths = incomingWidths;
+    }
+    
+    /**
+     * Applies a library mapping to a reference name
+     * 
+     * @param reference Full reference name, {@code library.symbol}
+     * @param renames
+     * @return The renamed reference, or the same reference if its library isn't renamed
+     */
+    private static String renamed(String reference, Map<String, String> renames) {
+        // library names may contain dots, so try every split, shortest library first
+        for(int idx = reference.indexOf('.'); idx >= 0; idx = reference.indexOf('.', idx + 1)) {
+            String nn = renames.get(reference.substring(0, idx));
+            
+            if(nn != null) return nn + reference.substring(idx);
+        }
+        
+        return reference;
+    }
+    
     /**
      * Renames all references with the given name
      * 
@@ -153,28 +191,51 @@ public class RenameableRelocatableObject extends RelocatableObject {
      * @param newName
      */
     public void renameGlobal(String oldName, String newName) {
-        renameMap(this.incomingReferences, oldName, newName);
-        renameMap(this.incomingReferenceWidths, oldName, newName);
-        
-        if(oldName.startsWith(this.name)) {
-            oldName = oldName.substring(this.nameLength + 1);
-            newName = newName.substring(this.nameLength + 1);
-            renameMap(this.outgoingReferences, oldName, newName);
-            renameMap(this.outgoingReferenceWidths, oldName, newName);
+        renameGlobals(Map.of(oldName, newName));
+    }
+    
+    /**
+     * Renames many references at once. References are renamed by exact name, so each rename is a lookup
+     * rather than a pass over the tables. Renames are applied simultaneously.
+     * 
+     * @param renames New full name for each old full name
+     */
+    public void renameGlobals(Map<String, String> renames) {
+        renameKeys(this.incomingReferences, renames);
+        renameKeys(this.incomingReferenceWidths, renames);
+        
+        // outgoing references are named without the object name
+        HashMap<String, String> local = new HashMap<>();
+        
+        for(Entry<String, String> e : renames.entrySet()) {
+            String on = e.getKey();
+            
+            if(on.startsWith(this.name) && on.length() > this.nameLength && on.charAt(this.nameLength) == '.') {
+                local.put(on.substring(this.nameLength + 1), e.getValue().substring(this.nameLength + 1));
+            }
+        }
+        
+        if(!local.isEmpty()) {
+            renameKeys(this.outgoingReferences, local);
+            renameKeys(this.outgoingReferenceWidths, local);
         }
     }
     
     /**
-     * Renames map keys
+     * Renames map keys. Every renamed entry is removed before any is put back, so a key renamed to the old
+     * name of another is not overwritten.
      * 
      * @param <T>
      * @param map
-     * @param oldName
-     * @param newName
+     * @param renames New key for each old key
      */
-    private <T> void renameMap(Map<String, T> map, String oldName, String newName) {
-        if(map.containsKey(oldName)) {
-            map.put(newName, map.remove(oldName));
+    private static <T> void renameKeys(Map<String, T> map, Map<String, String> renames) {
+        HashMap<String, T> moved = new HashMap<>();
+        
+        for(Entry<String, String> e : renames.entrySet()) {
+            if(map.containsKey(e.getKey())) moved.put(e.getValue(), map.remove(e.getKey()));
         }
+        
+        map.putAll(moved);
     }
 }
@@ -0,0 +1,311 @@
+package asmlib.util.relocation;
+
+import java.util.Arrays;
+
+/**
+ * The global symbol table of a link. Symbols are interned to dense integer IDs and their addresses are kept
+ * in a primitive array indexed by ID.
+ * <p>
+ * Full names are never stored. A symbol is identified by the index of the object defining it and its name
+ * within that object, and lookups by full name ({@code object.symbol}) compare against those parts in place,
+ * so interning does not allocate. Full names are only built when asked for by {@link #name(int)}.
+ * </p>
+ * 
+ * @author Mechafinch
+ */
+public class SymbolTable {
+    
+    private String[] objectNames;
+    
+    private int[] objectPrefixHashes,
+                  owners,
+                  hashes,
+                  slots; // open addressing, ID + 1 with 0 as empty
+    
+    private String[] locals;
+    
+    private long[] addresses;
+    
+    private boolean[] defined;
+    
+    private int size;
+    
+    /**
+     * Creates an empty table
+     * 
+     * @param objectNames Names of the objects in the link, by object index
+     * @param capacity Expected number of symbols
+     */
+    SymbolTable(String[] objectNames, int capacity) {
+        this.objectNames = objectNames;
+        this.objectPrefixHashes = new int[objectNames.length];
+        
+        // hash of "name." for each object, so symbol hashes match String.hashCode of the full name
+        for(int i = 0; i < objectNames.length; i++) {
+            this.objectPrefixHashes[i] = objectNames[i].hashCode() * 31 + '.';
+        }
+        
+        capacity = Math.max(capacity, 8);
+        
+        this.owners = new int[capacity];
+        this.hashes = new int[capacity];
+        this.locals = new String[capacity];
+        this.addresses = new long[capacity];
+        this.defined = new boolean[capacity];
+        this.slots = new int[Integer.highestOneBit(capacity) << 2];
+        this.size = 0;
+    }
+    
+    /**
+     * Creates a copy of a table with the same IDs, which can be modified without affecting the original
+     * 
+     * @param other
+     */
+    SymbolTable(SymbolTable other) {
+        this.objectNames = other.objectNames;
+        this.objectPrefixHashes = other.objectPrefixHashes;
+        this.owners = other.owners.clone();
+        this.hashes = other.hashes.clone();
+        this.slots = other.slots.clone();
+        this.locals = other.locals.clone();
+        this.addresses = other.addresses.clone();
+        this.defined = other.defined.clone();
+        this.size = other.size;
+    }
+    
+    /**
+     * Interns a symbol. Objects sharing a name share their symbols.
+     * 
+     * @param owner Index of the defining object
+     * @param local Name within the object
+     * @return Symbol ID
+     */
+    int intern(int owner, String local) {
+        int hash = hash(owner, local),
+            mask = this.slots.length - 1;
+        
+        for(int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = this.slots[i] - 1;
+            
+            if(id < 0) {
+                // new symbol
+                id = this.size++;
+                
+                if(id == this.owners.length) grow();
+                
+                this.owners[id] = owner;
+                this.locals[id] = local;
+                this.hashes[id] = hash;
+                this.slots[i] = id + 1;
+                
+                if(this.size * 2 > this.slots.length) rehash();
+                
+                return id;
+            }
+            
+            if(this.hashes[id] == hash && matches(id, this.objectNames[owner], local)) return id;
+        }
+    }
+    
+    /**
+     * Finds a symbol by its parts
+     * 
+     * @param owner Index of the defining object
+     * @param local Name within the object
+     * @return Symbol ID, or -1 if the symbol has never been interned
+     */
+    int find(int owner, String local) {
+        int hash = hash(owner, local),
+            mask = this.slots.length - 1;
+        
+        for(int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = this.slots[i] - 1;
+            
+            if(id < 0) return -1;
+            if(this.hashes[id] == hash && matches(id, this.objectNames[owner], local)) return id;
+        }
+    }
+    
+    /**
+     * Finds a symbol by its full name
+     * 
+     * @param name Full name, {@code object.symbol}
+     * @return Symbol ID, or -1 if the symbol has never been interned
+     */
+    public int find(String name) {
+        int hash = name.hashCode(),
+            mask = this.slots.length - 1;
+        
+        for(int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = this.slots[i] - 1;
+            
+            if(id < 0) return -1;
+            if(this.hashes[id] == hash && matches(id, name)) return id;
+        }
+    }
+    
+    /**
+     * Sets the address of a symbol and marks it defined
+     * 
+     * @param id
+     * @param address
+     */
+    void define(int id, long address) {
+        this.addresses[id] = address;
+        this.defined[id] = true;
+    }
+    
+    /**
+     * Marks a symbol undefined. Its ID remains valid.
+     * 
+     * @param id
+     */
+    void undefine(int id) {
+        this.defined[id] = false;
+    }
+    
+    /**
+     * @return Names of the objects in the link, by object index
+     */
+    String[] objectNames() { return this.objectNames; }
+    
+    /**
+     * @return Number of interned symbols. IDs run from 0 to size - 1
+     */
+    public int size() { return this.size; }
+    
+    /**
+     * @param id
+     * @return true if the symbol has an address
+     */
+    public boolean isDefined(int id) { return this.defined[id]; }
+    
+    /**
+     * @param id
+     * @return Address of the symbol
+     */
+    public long address(int id) { return this.addresses[id]; }
+    
+    /**
+     * @param id
+     * @return Index of the object defining the symbol
+     */
+    public int owner(int id) { return this.owners[id]; }
+    
+    /**
+     * @param id
+     * @return Name of the symbol within its object
+     */
+    public String localName(int id) { return this.locals[id]; }
+    
+    /**
+     * Builds the full name of a symbol. Intended for diagnostics.
+     * 
+     * @param id
+     * @return Full name, {@code object.symbol}
+     */
+    public String name(int id) {
+        return this.objectNames[this.owners[id]] + "." + this.locals[id];
+    }
+    
+    /**
+     * Computes String.hashCode of "object.local" without building it
+     * 
+     * @param owner
+     * @param local
+     * @return
+     */
+    private int hash(int owner, String local) {
+        int h = this.objectPrefixHashes[owner];
+        
+        for(int i = 0; i < local.length(); i++) h *= 31;
+        
+        return h + local.hashCode();
+    }
+    
+    /**
+     * Checks if a symbol's full name equals "object.local"
+     * 
+     * @param id
+     * @param object
+     * @param local
+     * @return
+     */
+    private boolean matches(int id, String object, String local) {
+        String idObject = this.objectNames[this.owners[id]],
+               idLocal = this.locals[id];
+        
+        if(idObject.length() + idLocal.length() != object.length() + local.length()) return false;
+        
+        // fast path, same split
+        if(idObject.length() == object.length()) return idObject.equals(object) && idLocal.equals(local);
+        
+        int length = object.length() + 1 + local.length();
+        
+        for(int i = 0; i < length; i++) {
+            if(charAt(idObject, idLocal, i) != charAt(object, local, i)) return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Checks if a symbol's full name equals the given name
+     * 
+     * @param id
+     * @param name
+     * @return
+     */
+    private boolean matches(int id, String name) {
+        String idObject = this.objectNames[this.owners[id]],
+               idLocal = this.locals[id];
+        
+        return name.length() == idObject.length() + 1 + idLocal.length() &&
+               name.startsWith(idObject) &&
+               name.charAt(idObject.length()) == '.' &&
+               name.endsWith(idLocal);
+    }
+    
+    /**
+     * Gets a character of "object.local" without building it
+     * 
+     * @param object
+     * @param local
+     * @param i
+     * @return
+     */
+    private static char charAt(String object, String local, int i) {
+        if(i < object.length()) return object.charAt(i);
+        if(i == object.length()) return '.';
+        return local.charAt(i - object.length() - 1);
+    }
+    
+    /**
+     * Grows the per-symbol arrays
+     */
+    private void grow() {
+        int capacity = this.owners.length * 2;
+        
+        this.owners = Arrays.copyOf(this.owners, capacity);
+        this.hashes = Arrays.copyOf(this.hashes, capacity);
+        this.locals = Arrays.copyOf(this.locals, capacity);
+        this.addresses = Arrays.copyOf(this.addresses, capacity);
+        this.defined = Arrays.copyOf(this.defined, capacity);
+    }
+    
+    /**
+     * Doubles the slot table
+     */
+    private void rehash() {
+        this.slots = new int[this.slots.length * 2];
+        int mask = this.slots.length - 1;
+        
+        for(int id = 0; id < this.size; id++) {
+            int i = this.hashes[id] & mask;
+            
+            while(this.slots[i] != 0) i = (i + 1) & mask;
+            
+            this.slots[i] = id + 1;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 module AssemblerLib {
     exports asmlib.util;
     exports asmlib.util.relocation;
+    exports asmlib.util.metrics;
+    exports asmlib.build;
     exports asmlib.lex;
     exports asmlib.lex.symbols;
     exports asmlib.token;
     exports asmlib.token.tokens;
     requires java.logging;
+    requires jdk.management;
+    requires jdk.jfr;
 }
\ No newline at end of file